@@ -0,0 +1,782 @@
+package com.sk89q.jnbt;
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Reads an <strong>NBT</strong> stream one tag at a time without building
+ * an object graph. Each call to <code>next()</code> moves to the start of
+ * the next tag or to the end of the compound or list that contains it.
+ * The name and payload of a tag are only decoded when asked for, and a
+ * tag can be skipped along with everything inside it, so that callers can
+ * pick out the fields that they need and pass over the rest.
+ * </p>
+ * 
+ * <p>
+ * After the start of a compound or list tag, <code>next()</code> moves to
+ * its first child. Calling <code>skip()</code> or <code>readTag()</code>
+ * instead consumes the whole tag. Payloads that are not read are skipped
+ * automatically.
+ * </p>
+ * 
+ * @author sk89q
+ */
+public final class NBTReader implements Closeable {
+
+    /**
+     * Event for the start of a tag.
+     */
+    public static final int START = 1;
+
+    /**
+     * Event for the end of a compound or list tag.
+     */
+    public static final int END = 2;
+
+    /**
+     * The data input stream.
+     */
+    private final DataInputStream is;
+
+    /**
+     * Types of the open compound and list tags.
+     */
+    private int[] containerTypes = new int[16];
+
+    /**
+     * Element types of the open list tags.
+     */
+    private int[] elementTypes = new int[16];
+
+    /**
+     * Number of elements left in the open list tags.
+     */
+    private int[] remaining = new int[16];
+
+    /**
+     * Number of open compound and list tags.
+     */
+    private int depth = 0;
+
+    /**
+     * Type of the current tag.
+     */
+    private int type = NBTConstants.TYPE_END;
+
+    /**
+     * Raw name of the current tag.
+     */
+    private byte[] nameBytes = new byte[64];
+
+    /**
+     * Length of the raw name.
+     */
+    private int nameLength = 0;
+
+    /**
+     * Decoded name, or null if it hasn't been decoded.
+     */
+    private String name;
+
+    /**
+     * Element type of the current list tag.
+     */
+    private int listType;
+
+    /**
+     * Number of elements in the current list tag.
+     */
+    private int listLength;
+
+    /**
+     * Whether the payload of the current tag hasn't been consumed.
+     */
+    private boolean pending = false;
+
+    /**
+     * Payload of the current tag if it is a whole number.
+     */
+    private long longValue;
+
+    /**
+     * Payload of the current tag if it is a floating point number.
+     */
+    private double doubleValue;
+
+    /**
+     * Payload of the current tag if it is a byte array.
+     */
+    private byte[] bytesValue;
+
+    /**
+     * Payload of the current tag if it is a string.
+     */
+    private String stringValue;
+
+    /**
+     * Number of bytes of a byte array started with
+     * <code>startByteArray()</code> that haven't been read.
+     */
+    private int bytesRemaining = 0;
+
+    /**
+     * Creates a new <code>NBTReader</code>, which will source its data from
+     * the specified input stream.
+     * 
+     * @param is
+     *            The input stream.
+     */
+    public NBTReader(InputStream is) {
+        this.is = is instanceof DataInputStream
+                ? (DataInputStream) is : new DataInputStream(is);
+    }
+
+    /**
+     * Moves to the next tag, or to the end of the current compound or list
+     * tag. When no tags are open, the next root tag is read.
+     * 
+     * @return <code>START</code> or <code>END</code>
+     * @throws IOException
+     *             if an I/O error occurs or the stream is malformed.
+     */
+    public int next() throws IOException {
+        skipRemainingBytes();
+
+        if (pending) {
+            if (type == NBTConstants.TYPE_COMPOUND
+                    || type == NBTConstants.TYPE_LIST) {
+                push();
+            } else {
+                skipPayload(type);
+                pending = false;
+            }
+        }
+
+        name = null;
+
+        if (depth == 0) {
+            readHeader(is.readByte() & 0xFF, true);
+            if (type == NBTConstants.TYPE_END) {
+                throw new IOException(
+                        "TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+            }
+            return START;
+        }
+
+        int container = containerTypes[depth - 1];
+
+        if (container == NBTConstants.TYPE_COMPOUND) {
+            int childType = is.readByte() & 0xFF;
+            if (childType == NBTConstants.TYPE_END) {
+                pop();
+                return END;
+            }
+            readHeader(childType, true);
+        } else {
+            if (remaining[depth - 1] == 0) {
+                pop();
+                return END;
+            }
+            --remaining[depth - 1];
+            if (elementTypes[depth - 1] == NBTConstants.TYPE_END) {
+                throw new IOException("TAG_End not permitted in a list.");
+            }
+            readHeader(elementTypes[depth - 1], false);
+        }
+
+        return START;
+    }
+
+    /**
+     * Gets the type of the current tag, or of the compound or list tag that
+     * just ended.
+     * 
+     * @return The type.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Gets the number of compound and list tags that the current tag is
+     * inside of.
+     * 
+     * @return The depth.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the name of the current tag. Tags inside lists have no name.
+     * 
+     * @return The name.
+     */
+    public String getName() {
+        if (name == null) {
+            name = new String(nameBytes, 0, nameLength, NBTConstants.CHARSET);
+        }
+        return name;
+    }
+
+    /**
+     * Checks the name of the current tag without decoding it.
+     * 
+     * @param expected
+     *            The name to compare to.
+     * @return Whether the current tag has that name.
+     */
+    public boolean isNamed(String expected) {
+        if (name != null) {
+            return name.equals(expected);
+        }
+
+        if (expected.length() != nameLength) {
+            // An ASCII name is encoded as one byte per character, so it
+            // can only match a name of the same length
+            for (int i = 0; i < expected.length(); ++i) {
+                if (expected.charAt(i) > 127) {
+                    return getName().equals(expected);
+                }
+            }
+            return false;
+        }
+
+        for (int i = 0; i < nameLength; ++i) {
+            char c = expected.charAt(i);
+            if (c > 127 || nameBytes[i] < 0) {
+                return getName().equals(expected);
+            }
+            if (nameBytes[i] != c) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the element type of the current list tag.
+     * 
+     * @return The element type.
+     */
+    public int getListType() {
+        return listType;
+    }
+
+    /**
+     * Gets the number of elements in the current list tag.
+     * 
+     * @return The number of elements.
+     */
+    public int getListLength() {
+        return listLength;
+    }
+
+    /**
+     * Gets the payload of the current tag, which must be a byte, short, int
+     * or long tag.
+     * 
+     * @return The payload.
+     * @throws IOException
+     *             if an I/O error occurs or the tag is of another type.
+     */
+    public long getLong() throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+        case NBTConstants.TYPE_SHORT:
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_LONG:
+            readPayload();
+            return longValue;
+        default:
+            throw unexpectedType("a whole number");
+        }
+    }
+
+    /**
+     * Gets the payload of the current tag, which must be a byte, short or
+     * int tag.
+     * 
+     * @return The payload.
+     * @throws IOException
+     *             if an I/O error occurs or the tag is of another type.
+     */
+    public int getInt() throws IOException {
+        if (type == NBTConstants.TYPE_LONG) {
+            throw unexpectedType("TAG_Int");
+        }
+        return (int) getLong();
+    }
+
+    /**
+     * Gets the payload of the current tag, which must be a float or double
+     * tag.
+     * 
+     * @return The payload.
+     * @throws IOException
+     *             if an I/O error occurs or the tag is of another type.
+     */
+    public double getDouble() throws IOException {
+        if (type != NBTConstants.TYPE_FLOAT
+                && type != NBTConstants.TYPE_DOUBLE) {
+            throw unexpectedType("a floating point number");
+        }
+        readPayload();
+        return doubleValue;
+    }
+
+    /**
+     * Gets the payload of the current tag, which must be a byte array tag.
+     * 
+     * @return The payload.
+     * @throws IOException
+     *             if an I/O error occurs or the tag is of another type.
+     */
+    public byte[] getByteArray() throws IOException {
+        if (type != NBTConstants.TYPE_BYTE_ARRAY) {
+            throw unexpectedType("TAG_Byte_Array");
+        }
+        readPayload();
+        return bytesValue;
+    }
+
+    /**
+     * Starts reading the payload of the current tag, which must be a byte
+     * array tag, a part at a time with <code>readBytes()</code>. Whatever
+     * is not read is skipped by the next call to <code>next()</code> or
+     * <code>skip()</code>.
+     * 
+     * @return The length of the array.
+     * @throws IOException
+     *             if an I/O error occurs or the tag is of another type.
+     */
+    public int startByteArray() throws IOException {
+        if (type != NBTConstants.TYPE_BYTE_ARRAY) {
+            throw unexpectedType("TAG_Byte_Array");
+        }
+        if (!pending) {
+            throw new IOException("TAG_Byte_Array has already been read.");
+        }
+
+        int length = is.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid TAG_Byte_Array length: " + length + ".");
+        }
+
+        bytesRemaining = length;
+        pending = false;
+        return length;
+    }
+
+    /**
+     * Reads the next part of a byte array started with
+     * <code>startByteArray()</code>.
+     * 
+     * @param bytes
+     *            The array to read into.
+     * @param offset
+     *            The offset in the array to read to.
+     * @param length
+     *            The number of bytes to read.
+     * @throws IOException
+     *             if an I/O error occurs or the byte array is shorter.
+     */
+    public void readBytes(byte[] bytes, int offset, int length)
+            throws IOException {
+        if (length > bytesRemaining) {
+            throw new IOException("Read past the end of TAG_Byte_Array.");
+        }
+
+        is.readFully(bytes, offset, length);
+        bytesRemaining -= length;
+    }
+
+    /**
+     * Gets the payload of the current tag, which must be a string tag.
+     * 
+     * @return The payload.
+     * @throws IOException
+     *             if an I/O error occurs or the tag is of another type.
+     */
+    public String getString() throws IOException {
+        if (type != NBTConstants.TYPE_STRING) {
+            throw unexpectedType("TAG_String");
+        }
+        readPayload();
+        return stringValue;
+    }
+
+    /**
+     * Skips the rest of the current tag, including every tag inside it if
+     * it is a compound or list tag, without decoding it.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void skip() throws IOException {
+        skipRemainingBytes();
+
+        if (!pending) {
+            return;
+        }
+
+        if (type == NBTConstants.TYPE_LIST) {
+            skipElements(listType, listLength);
+        } else {
+            skipPayload(type);
+        }
+
+        pending = false;
+    }
+
+    /**
+     * Reads the rest of the current tag, including every tag inside it, as
+     * an object graph.
+     * 
+     * @return The tag that was read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag readTag() throws IOException {
+        String tagName = getName();
+
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            return new ByteTag(tagName, (byte) getLong());
+        case NBTConstants.TYPE_SHORT:
+            return new ShortTag(tagName, (short) getLong());
+        case NBTConstants.TYPE_INT:
+            return new IntTag(tagName, (int) getLong());
+        case NBTConstants.TYPE_LONG:
+            return new LongTag(tagName, getLong());
+        case NBTConstants.TYPE_FLOAT:
+            return new FloatTag(tagName, (float) getDouble());
+        case NBTConstants.TYPE_DOUBLE:
+            return new DoubleTag(tagName, getDouble());
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            return new ByteArrayTag(tagName, getByteArray());
+        case NBTConstants.TYPE_STRING:
+            return new StringTag(tagName, getString());
+        case NBTConstants.TYPE_LIST:
+            int childType = listType;
+            List<Tag> tagList = new ArrayList<Tag>();
+            while (next() == START) {
+                tagList.add(readTag());
+            }
+            return new ListTag(tagName, NBTUtils.getTypeClass(childType), tagList);
+        case NBTConstants.TYPE_COMPOUND:
+            Map<String, Tag> tagMap = new HashMap<String, Tag>();
+            while (next() == START) {
+                Tag tag = readTag();
+                tagMap.put(tag.getName(), tag);
+            }
+            return new CompoundTag(tagName, tagMap);
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    public void close() throws IOException {
+        is.close();
+    }
+
+    /**
+     * Reads the type, name and, for list tags, the list header of a tag.
+     * 
+     * @param type
+     *            The type.
+     * @param named
+     *            Whether the tag has a name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void readHeader(int type, boolean named) throws IOException {
+        if (type > NBTConstants.TYPE_COMPOUND) {
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+
+        this.type = type;
+        nameLength = 0;
+        bytesValue = null;
+        stringValue = null;
+
+        if (type == NBTConstants.TYPE_END) {
+            return;
+        }
+
+        if (named) {
+            nameLength = is.readUnsignedShort();
+            if (nameLength > nameBytes.length) {
+                nameBytes = new byte[Math.max(nameLength, nameBytes.length * 2)];
+            }
+            is.readFully(nameBytes, 0, nameLength);
+        }
+
+        if (type == NBTConstants.TYPE_LIST) {
+            listType = is.readByte() & 0xFF;
+            listLength = is.readInt();
+            if (listType > NBTConstants.TYPE_COMPOUND) {
+                throw new IOException("Invalid tag type: " + listType + ".");
+            }
+        }
+
+        pending = true;
+    }
+
+    /**
+     * Reads the payload of the current tag if it hasn't been read.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void readPayload() throws IOException {
+        if (!pending) {
+            return;
+        }
+
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            longValue = is.readByte();
+            break;
+        case NBTConstants.TYPE_SHORT:
+            longValue = is.readShort();
+            break;
+        case NBTConstants.TYPE_INT:
+            longValue = is.readInt();
+            break;
+        case NBTConstants.TYPE_LONG:
+            longValue = is.readLong();
+            break;
+        case NBTConstants.TYPE_FLOAT:
+            doubleValue = is.readFloat();
+            break;
+        case NBTConstants.TYPE_DOUBLE:
+            doubleValue = is.readDouble();
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            bytesValue = new byte[is.readInt()];
+            is.readFully(bytesValue);
+            break;
+        case NBTConstants.TYPE_STRING:
+            byte[] bytes = new byte[is.readUnsignedShort()];
+            is.readFully(bytes);
+            stringValue = new String(bytes, NBTConstants.CHARSET);
+            break;
+        }
+
+        pending = false;
+    }
+
+    /**
+     * Skips the payload of a tag.
+     * 
+     * @param type
+     *            The type.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void skipPayload(int type) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            skipFully(1);
+            break;
+        case NBTConstants.TYPE_SHORT:
+            skipFully(2);
+            break;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            skipFully(4);
+            break;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            skipFully(8);
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            skipFully(is.readInt());
+            break;
+        case NBTConstants.TYPE_STRING:
+            skipFully(is.readUnsignedShort());
+            break;
+        case NBTConstants.TYPE_LIST:
+            int childType = is.readByte() & 0xFF;
+            skipElements(childType, is.readInt());
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            while (true) {
+                int childType2 = is.readByte() & 0xFF;
+                if (childType2 == NBTConstants.TYPE_END) {
+                    break;
+                }
+                skipFully(is.readUnsignedShort());
+                skipPayload(childType2);
+            }
+            break;
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    /**
+     * Skips the elements of a list tag.
+     * 
+     * @param type
+     *            The element type.
+     * @param length
+     *            The number of elements.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void skipElements(int type, int length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+
+        switch (type) {
+        case NBTConstants.TYPE_END:
+            throw new IOException("TAG_End not permitted in a list.");
+        case NBTConstants.TYPE_BYTE:
+            skipFully(length);
+            break;
+        case NBTConstants.TYPE_SHORT:
+            skipFully(length * 2L);
+            break;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            skipFully(length * 4L);
+            break;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            skipFully(length * 8L);
+            break;
+        default:
+            for (int i = 0; i < length; ++i) {
+                skipPayload(type);
+            }
+        }
+    }
+
+    /**
+     * Skips what is left of a byte array started with
+     * <code>startByteArray()</code>.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void skipRemainingBytes() throws IOException {
+        if (bytesRemaining > 0) {
+            skipFully(bytesRemaining);
+            bytesRemaining = 0;
+        }
+    }
+
+    /**
+     * Skips a number of bytes, failing if the stream ends first.
+     * 
+     * @param n
+     *            The number of bytes.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            int skipped = is.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes() may stop early without being at the end
+                if (is.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Enters the current compound or list tag.
+     */
+    private void push() {
+        if (depth == containerTypes.length) {
+            int capacity = depth * 2;
+            int[] newContainerTypes = new int[capacity];
+            int[] newElementTypes = new int[capacity];
+            int[] newRemaining = new int[capacity];
+            System.arraycopy(containerTypes, 0, newContainerTypes, 0, depth);
+            System.arraycopy(elementTypes, 0, newElementTypes, 0, depth);
+            System.arraycopy(remaining, 0, newRemaining, 0, depth);
+            containerTypes = newContainerTypes;
+            elementTypes = newElementTypes;
+            remaining = newRemaining;
+        }
+
+        containerTypes[depth] = type;
+        elementTypes[depth] = listType;
+        remaining[depth] = Math.max(0, listLength);
+        ++depth;
+        pending = false;
+    }
+
+    /**
+     * Leaves the innermost compound or list tag.
+     */
+    private void pop() {
+        --depth;
+        type = containerTypes[depth];
+        nameLength = 0;
+        pending = false;
+    }
+
+    /**
+     * Creates the exception for a payload read on a tag of the wrong type.
+     * 
+     * @param expected
+     *            What was expected.
+     * @return The exception.
+     */
+    private IOException unexpectedType(String expected) {
+        return new IOException("Expected " + expected + " but found "
+                + NBTUtils.getTypeName(NBTUtils.getTypeClass(type)) + ".");
+    }
+
+}
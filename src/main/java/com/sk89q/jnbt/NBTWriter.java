@@ -0,0 +1,479 @@
+package com.sk89q.jnbt;
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * <p>
+ * Writes an <strong>NBT</strong> stream one tag at a time without needing
+ * an object graph. Compound and list tags are started, filled with the
+ * tags inside them and then ended, and the payload of a byte array tag can
+ * be written a part at a time, so that large structures can be written
+ * straight from where they are kept.
+ * </p>
+ * 
+ * <p>
+ * Tags written inside a list tag have no name, so the name passed for them
+ * is ignored.
+ * </p>
+ * 
+ * @author sk89q
+ */
+public final class NBTWriter implements Closeable {
+
+    /**
+     * The data output stream.
+     */
+    private final DataOutputStream os;
+
+    /**
+     * Types of the open compound and list tags.
+     */
+    private int[] containerTypes = new int[16];
+
+    /**
+     * Element types of the open list tags.
+     */
+    private int[] elementTypes = new int[16];
+
+    /**
+     * Number of elements left to write in the open list tags.
+     */
+    private int[] remaining = new int[16];
+
+    /**
+     * Number of open compound and list tags.
+     */
+    private int depth = 0;
+
+    /**
+     * Number of bytes of a byte array started with
+     * <code>writeStartByteArray()</code> that haven't been written.
+     */
+    private int bytesRemaining = 0;
+
+    /**
+     * Creates a new <code>NBTWriter</code>, which will write data to the
+     * specified output stream.
+     * 
+     * @param os
+     *            The output stream.
+     */
+    public NBTWriter(OutputStream os) {
+        this.os = os instanceof DataOutputStream
+                ? (DataOutputStream) os : new DataOutputStream(os);
+    }
+
+    /**
+     * Starts a compound tag. The tags inside it are written next, followed
+     * by a call to <code>writeEnd()</code>.
+     * 
+     * @param name
+     *            The name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeStartCompound(String name) throws IOException {
+        writeHeader(NBTConstants.TYPE_COMPOUND, name);
+        push(NBTConstants.TYPE_COMPOUND, NBTConstants.TYPE_END, 0);
+    }
+
+    /**
+     * Starts a list tag. Exactly <code>length</code> tags of the element
+     * type are written next, followed by a call to <code>writeEnd()</code>.
+     * 
+     * @param name
+     *            The name.
+     * @param elementType
+     *            The type of the elements.
+     * @param length
+     *            The number of elements.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeStartList(String name, int elementType, int length)
+            throws IOException {
+        writeHeader(NBTConstants.TYPE_LIST, name);
+        os.writeByte(elementType);
+        os.writeInt(length);
+        push(NBTConstants.TYPE_LIST, elementType, length);
+    }
+
+    /**
+     * Ends the innermost compound or list tag.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs or a list tag is missing elements.
+     */
+    public void writeEnd() throws IOException {
+        checkBytesWritten();
+
+        if (depth == 0) {
+            throw new IOException("No TAG_Compound/TAG_List to end.");
+        }
+
+        --depth;
+
+        if (containerTypes[depth] == NBTConstants.TYPE_COMPOUND) {
+            os.writeByte(NBTConstants.TYPE_END);
+        } else if (remaining[depth] != 0) {
+            throw new IOException("TAG_List is missing "
+                    + remaining[depth] + " elements.");
+        }
+    }
+
+    /**
+     * Writes a byte tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeByte(String name, int value) throws IOException {
+        writeHeader(NBTConstants.TYPE_BYTE, name);
+        os.writeByte(value);
+    }
+
+    /**
+     * Writes a short tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeShort(String name, int value) throws IOException {
+        writeHeader(NBTConstants.TYPE_SHORT, name);
+        os.writeShort(value);
+    }
+
+    /**
+     * Writes an int tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeInt(String name, int value) throws IOException {
+        writeHeader(NBTConstants.TYPE_INT, name);
+        os.writeInt(value);
+    }
+
+    /**
+     * Writes a long tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeLong(String name, long value) throws IOException {
+        writeHeader(NBTConstants.TYPE_LONG, name);
+        os.writeLong(value);
+    }
+
+    /**
+     * Writes a float tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeFloat(String name, float value) throws IOException {
+        writeHeader(NBTConstants.TYPE_FLOAT, name);
+        os.writeFloat(value);
+    }
+
+    /**
+     * Writes a double tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeDouble(String name, double value) throws IOException {
+        writeHeader(NBTConstants.TYPE_DOUBLE, name);
+        os.writeDouble(value);
+    }
+
+    /**
+     * Writes a string tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeString(String name, String value) throws IOException {
+        writeHeader(NBTConstants.TYPE_STRING, name);
+        byte[] bytes = value.getBytes(NBTConstants.CHARSET);
+        os.writeShort(bytes.length);
+        os.write(bytes);
+    }
+
+    /**
+     * Writes a byte array tag.
+     * 
+     * @param name
+     *            The name.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeByteArray(String name, byte[] value) throws IOException {
+        writeStartByteArray(name, value.length);
+        writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * Starts a byte array tag whose payload is then written a part at a
+     * time with <code>writeBytes()</code>.
+     * 
+     * @param name
+     *            The name.
+     * @param length
+     *            The length of the array.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeStartByteArray(String name, int length)
+            throws IOException {
+        writeHeader(NBTConstants.TYPE_BYTE_ARRAY, name);
+        os.writeInt(length);
+        bytesRemaining = length;
+    }
+
+    /**
+     * Writes the next part of a byte array started with
+     * <code>writeStartByteArray()</code>.
+     * 
+     * @param bytes
+     *            The array to write from.
+     * @param offset
+     *            The offset in the array to write from.
+     * @param length
+     *            The number of bytes to write.
+     * @throws IOException
+     *             if an I/O error occurs or the byte array is shorter.
+     */
+    public void writeBytes(byte[] bytes, int offset, int length)
+            throws IOException {
+        if (length > bytesRemaining) {
+            throw new IOException("Write past the end of TAG_Byte_Array.");
+        }
+
+        os.write(bytes, offset, length);
+        bytesRemaining -= length;
+    }
+
+    /**
+     * Writes a tag and every tag inside it.
+     * 
+     * @param tag
+     *            The tag to write.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeTag(Tag tag) throws IOException {
+        String name = tag.getName();
+        int type = NBTUtils.getTypeCode(tag.getClass());
+
+        switch (type) {
+        case NBTConstants.TYPE_END:
+            throw new IOException("Named TAG_End not permitted.");
+        case NBTConstants.TYPE_BYTE:
+            writeByte(name, ((ByteTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_SHORT:
+            writeShort(name, ((ShortTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_INT:
+            writeInt(name, ((IntTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_LONG:
+            writeLong(name, ((LongTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_FLOAT:
+            writeFloat(name, ((FloatTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_DOUBLE:
+            writeDouble(name, ((DoubleTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            writeByteArray(name, ((ByteArrayTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_STRING:
+            writeString(name, ((StringTag) tag).getValue());
+            break;
+        case NBTConstants.TYPE_LIST:
+            ListTag listTag = (ListTag) tag;
+            List<Tag> tags = listTag.getValue();
+            writeStartList(name, NBTUtils.getTypeCode(listTag.getType()),
+                    tags.size());
+            for (Tag childTag : tags) {
+                writeTag(childTag);
+            }
+            writeEnd();
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            writeStartCompound(name);
+            for (Tag childTag : ((CompoundTag) tag).getValue().values()) {
+                writeTag(childTag);
+            }
+            writeEnd();
+            break;
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    /**
+     * Flushes the underlying stream.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void flush() throws IOException {
+        os.flush();
+    }
+
+    public void close() throws IOException {
+        os.close();
+    }
+
+    /**
+     * Writes the type and name of a tag, or checks the type of an element
+     * of a list tag.
+     * 
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @throws IOException
+     *             if an I/O error occurs or the tag doesn't fit in the list.
+     */
+    private void writeHeader(int type, String name) throws IOException {
+        checkBytesWritten();
+
+        if (depth > 0 && containerTypes[depth - 1] == NBTConstants.TYPE_LIST) {
+            if (type != elementTypes[depth - 1]) {
+                throw new IOException("Expected "
+                        + NBTUtils.getTypeName(NBTUtils.getTypeClass(
+                                elementTypes[depth - 1]))
+                        + " in TAG_List but found "
+                        + NBTUtils.getTypeName(NBTUtils.getTypeClass(type))
+                        + ".");
+            }
+            if (remaining[depth - 1] == 0) {
+                throw new IOException("TAG_List has too many elements.");
+            }
+            --remaining[depth - 1];
+            return;
+        }
+
+        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
+        os.writeByte(type);
+        os.writeShort(nameBytes.length);
+        os.write(nameBytes);
+    }
+
+    /**
+     * Checks that a byte array started with
+     * <code>writeStartByteArray()</code> has been written in full.
+     * 
+     * @throws IOException
+     *             if it hasn't.
+     */
+    private void checkBytesWritten() throws IOException {
+        if (bytesRemaining != 0) {
+            throw new IOException("TAG_Byte_Array is missing "
+                    + bytesRemaining + " bytes.");
+        }
+    }
+
+    /**
+     * Enters a compound or list tag.
+     * 
+     * @param type
+     *            The type.
+     * @param elementType
+     *            The element type of a list tag.
+     * @param length
+     *            The number of elements of a list tag.
+     */
+    private void push(int type, int elementType, int length) {
+        if (depth == containerTypes.length) {
+            int capacity = depth * 2;
+            int[] newContainerTypes = new int[capacity];
+            int[] newElementTypes = new int[capacity];
+            int[] newRemaining = new int[capacity];
+            System.arraycopy(containerTypes, 0, newContainerTypes, 0, depth);
+            System.arraycopy(elementTypes, 0, newElementTypes, 0, depth);
+            System.arraycopy(remaining, 0, newRemaining, 0, depth);
+            containerTypes = newContainerTypes;
+            elementTypes = newElementTypes;
+            remaining = newRemaining;
+        }
+
+        containerTypes[depth] = type;
+        elementTypes[depth] = elementType;
+        remaining[depth] = length;
+        ++depth;
+    }
+
+}
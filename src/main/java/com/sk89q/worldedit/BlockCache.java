@@ -0,0 +1,243 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches block types and data read from a world. Blocks are stored in
+ * 16x16x16 sections that are created as they are touched, and each block
+ * is read from the world the first time it is requested. The cache does
+ * not see changes made to the world by anything else, so it should only
+ * live as long as one operation.
+ *
+ * @author sk89q
+ */
+public class BlockCache {
+    /**
+     * World to read from.
+     */
+    private LocalWorld world;
+    /**
+     * Cached sections, keyed by packed section coordinates.
+     */
+    private Map<Long, Section> sections = new HashMap<Long, Section>();
+    /**
+     * Key of the last section used.
+     */
+    private long lastKey;
+    /**
+     * Last section used.
+     */
+    private Section lastSection;
+    /**
+     * Number of reads answered from the cache.
+     */
+    private long hits = 0;
+    /**
+     * Number of reads that went to the world.
+     */
+    private long misses = 0;
+
+    /**
+     * Construct the cache.
+     *
+     * @param world
+     */
+    public BlockCache(LocalWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * Get the type of a block.
+     *
+     * @param pt
+     * @return
+     */
+    public int getBlockType(Vector pt) {
+        return getBlockType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Get the type of a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        if (y < 0 || y > 127) {
+            return world.getBlockType(x, y, z);
+        }
+
+        Section section = getSection(x, y, z, true);
+        int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        int type = section.types[index];
+
+        if (type == -1) {
+            ++misses;
+            type = world.getBlockType(x, y, z);
+            section.types[index] = (short) type;
+        } else {
+            ++hits;
+        }
+
+        return type;
+    }
+
+    /**
+     * Get the data of a block.
+     *
+     * @param pt
+     * @return
+     */
+    public int getBlockData(Vector pt) {
+        return getBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Get the data of a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockData(int x, int y, int z) {
+        if (y < 0 || y > 127) {
+            return world.getBlockData(x, y, z);
+        }
+
+        Section section = getSection(x, y, z, true);
+        int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        int data = section.data[index];
+
+        if (data == -1) {
+            ++misses;
+            data = world.getBlockData(x, y, z);
+            section.data[index] = (byte) data;
+        } else {
+            ++hits;
+        }
+
+        return data;
+    }
+
+    /**
+     * Forget a block, so that it is read from the world again the next time.
+     * Must be called whenever a block is changed.
+     *
+     * @param pt
+     */
+    public void invalidate(Vector pt) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        int z = pt.getBlockZ();
+
+        if (y < 0 || y > 127) {
+            return;
+        }
+
+        Section section = getSection(x, y, z, false);
+
+        if (section != null) {
+            int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+            section.types[index] = -1;
+            section.data[index] = -1;
+        }
+    }
+
+    /**
+     * Forget everything in the cache.
+     */
+    public void clear() {
+        sections.clear();
+        lastSection = null;
+    }
+
+    /**
+     * Get the number of reads answered from the cache.
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of reads that went to the world.
+     *
+     * @return
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the section containing a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param create whether to create the section if it doesn't exist
+     * @return section, or null if it doesn't exist and create is false
+     */
+    private Section getSection(int x, int y, int z, boolean create) {
+        long key = ((long) (x >> 4) << 36)
+                ^ ((long) ((z >> 4) & 0xFFFFFFF) << 4)
+                ^ (y >> 4);
+
+        if (lastSection != null && key == lastKey) {
+            return lastSection;
+        }
+
+        Section section = sections.get(key);
+
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+
+            section = new Section();
+            sections.put(key, section);
+        }
+
+        lastKey = key;
+        lastSection = section;
+
+        return section;
+    }
+
+    /**
+     * A 16x16x16 section of blocks. Unknown blocks are set to -1.
+     */
+    private static class Section {
+        private short[] types = new short[4096];
+        private byte[] data = new byte[4096];
+
+        private Section() {
+            Arrays.fill(types, (short) -1);
+            Arrays.fill(data, (byte) -1);
+        }
+    }
+}
@@ -0,0 +1,641 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.*;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * Stores a list of block changes in primitive arrays. Positions are packed
+ * into longs by {@link BlockPosition} and block types and data are kept in parallel arrays, so
+ * that a change costs a handful of bytes rather than a BlockVector and
+ * a BaseBlock. Blocks that carry tile entity data (signs, chests, etc.)
+ * are kept as-is in a side map keyed by their index.
+ *
+ * @author sk89q
+ */
+public class BlockChangeList {
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Rough number of bytes used by a tile entity block.
+     */
+    private static final int TILE_ENTITY_SIZE = 512;
+
+    /**
+     * Packed positions.
+     */
+    private long[] positions;
+    /**
+     * Block types.
+     */
+    private short[] types;
+    /**
+     * Block data.
+     */
+    private byte[] data;
+    /**
+     * Blocks with extra data, keyed by index.
+     */
+    private Map<Integer, BaseBlock> tileEntities =
+            new HashMap<Integer, BaseBlock>();
+    /**
+     * Number of entries.
+     */
+    private int size = 0;
+    /**
+     * Is reversed when iterating.
+     */
+    private boolean isReversed = false;
+    /**
+     * Open addressing hash table of entry indices plus one, keyed by
+     * position. It is only built once a lookup is made, and is null until
+     * then.
+     */
+    private int[] index;
+
+    /**
+     * Construct the object.
+     *
+     * @param isReversed
+     */
+    public BlockChangeList(boolean isReversed) {
+        this.isReversed = isReversed;
+        positions = new long[INITIAL_CAPACITY];
+        types = new short[INITIAL_CAPACITY];
+        data = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Add a change.
+     *
+     * @param pt
+     * @param block
+     */
+    public void put(Vector pt, BaseBlock block) {
+        put(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), block);
+    }
+
+    /**
+     * Add a change.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param block
+     */
+    public void put(int x, int y, int z, BaseBlock block) {
+        if (size == positions.length) {
+            grow();
+        }
+
+        positions[size] = BlockPosition.pack(x, y, z);
+        types[size] = (short) block.getType();
+        data[size] = (byte) block.getData();
+
+        if (block instanceof TileEntityBlock) {
+            tileEntities.put(size, block);
+        }
+
+        if (index != null) {
+            addToIndex(size);
+        }
+
+        ++size;
+    }
+
+    /**
+     * Replace the block of an existing change.
+     *
+     * @param i index of the change
+     * @param block
+     */
+    public void replace(int i, BaseBlock block) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds");
+        }
+
+        types[i] = (short) block.getType();
+        data[i] = (byte) block.getData();
+
+        if (block instanceof TileEntityBlock) {
+            tileEntities.put(i, block);
+        } else if (!tileEntities.isEmpty()) {
+            tileEntities.remove(i);
+        }
+    }
+
+    /**
+     * Get the index of the first change to a position. Indices are in the
+     * order that changes were added, regardless of whether the list is
+     * reversed, and stay valid until the list is cleared or sorted.
+     *
+     * @param pt
+     * @return index, or -1 if the position was not changed
+     */
+    public int indexOf(Vector pt) {
+        return indexOf(BlockPosition.pack(pt));
+    }
+
+    /**
+     * Get size.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clear the list.
+     */
+    public void clear() {
+        positions = new long[INITIAL_CAPACITY];
+        types = new short[INITIAL_CAPACITY];
+        data = new byte[INITIAL_CAPACITY];
+        tileEntities.clear();
+        index = null;
+        size = 0;
+    }
+
+    /**
+     * Get an estimate of the number of bytes used by this list.
+     *
+     * @return
+     */
+    public long getByteSize() {
+        return positions.length * 11L
+                + (index != null ? index.length * 4L : 0)
+                + tileEntities.size() * (long) TILE_ENTITY_SIZE;
+    }
+
+    /**
+     * Write the list to a stream.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+
+        for (int i = 0; i < size; ++i) {
+            out.writeLong(positions[i]);
+            out.writeShort(types[i]);
+            out.writeByte(data[i]);
+        }
+
+        out.writeInt(tileEntities.size());
+
+        for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+            TileEntityBlock block = (TileEntityBlock) entry.getValue();
+            Map<String, Tag> values;
+
+            try {
+                values = block.toTileEntityNBT();
+            } catch (DataException e) {
+                throw new IOException(e.getMessage());
+            }
+
+            if (values == null) {
+                values = new HashMap<String, Tag>();
+            }
+            values.put("id", new StringTag("id", block.getTileEntityID()));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            NBTOutputStream nbt = new NBTOutputStream(bytes);
+            nbt.writeTag(new CompoundTag("TileEntity", values));
+            nbt.close();
+
+            out.writeInt(entry.getKey());
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Replace the contents of this list with a list read from a stream.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        int capacity = Math.max(INITIAL_CAPACITY, count);
+
+        positions = new long[capacity];
+        types = new short[capacity];
+        data = new byte[capacity];
+        tileEntities.clear();
+        index = null;
+
+        for (int i = 0; i < count; ++i) {
+            positions[i] = in.readLong();
+            types[i] = in.readShort();
+            data[i] = in.readByte();
+        }
+
+        size = count;
+
+        int tileEntityCount = in.readInt();
+
+        for (int i = 0; i < tileEntityCount; ++i) {
+            int index = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            if (index < 0 || index >= size) {
+                throw new IOException("Tile entity index out of bounds");
+            }
+
+            NBTInputStream nbt = new NBTInputStream(
+                    new GZIPInputStream(new ByteArrayInputStream(bytes)));
+            CompoundTag tag = (CompoundTag) nbt.readTag();
+            nbt.close();
+
+            int type = types[index] & 0xFFFF;
+            int blockData = data[index] & 0xFF;
+            BaseBlock block;
+
+            if (type == BlockID.WALL_SIGN || type == BlockID.SIGN_POST) {
+                block = new SignBlock(type, blockData);
+            } else if (type == BlockID.CHEST) {
+                block = new ChestBlock(blockData);
+            } else if (type == BlockID.FURNACE || type == BlockID.BURNING_FURNACE) {
+                block = new FurnaceBlock(type, blockData);
+            } else if (type == BlockID.DISPENSER) {
+                block = new DispenserBlock(blockData);
+            } else if (type == BlockID.MOB_SPAWNER) {
+                block = new MobSpawnerBlock(blockData);
+            } else if (type == BlockID.NOTE_BLOCK) {
+                block = new NoteBlock(blockData);
+            } else {
+                continue;
+            }
+
+            try {
+                ((TileEntityBlock) block).fromTileEntityNBT(tag.getValue());
+            } catch (DataException e) {
+                throw new IOException(e.getMessage());
+            }
+
+            tileEntities.put(index, block);
+        }
+    }
+
+    /**
+     * Returns whether the list iterates from last to first.
+     *
+     * @return
+     */
+    public boolean isReversed() {
+        return isReversed;
+    }
+
+    /**
+     * Get a cursor over the changes in iteration order.
+     *
+     * @return
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reorder the changes so that they are grouped by chunk and, within
+     * each chunk, by Y from bottom to top. The sort is stable, so when the
+     * same position was changed more than once, the change that would have
+     * been applied last in iteration order is still applied last.
+     */
+    public void sortByChunk() {
+        if (size < 2) {
+            return;
+        }
+
+        long[] keys = new long[size];
+        for (int i = 0; i < size; ++i) {
+            keys[i] = chunkKey(positions[i]);
+        }
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], keys, 0, size);
+
+        long[] newPositions = new long[positions.length];
+        short[] newTypes = new short[types.length];
+        byte[] newData = new byte[data.length];
+        Map<Integer, BaseBlock> newTileEntities =
+                new HashMap<Integer, BaseBlock>();
+
+        for (int i = 0; i < size; ++i) {
+            int from = order[i];
+            newPositions[i] = positions[from];
+            newTypes[i] = types[from];
+            newData[i] = data[from];
+
+            if (!tileEntities.isEmpty() && mayHaveTileEntity(types[from])) {
+                BaseBlock tileEntity = tileEntities.get(from);
+                if (tileEntity != null) {
+                    newTileEntities.put(i, tileEntity);
+                }
+            }
+        }
+
+        positions = newPositions;
+        types = newTypes;
+        data = newData;
+        tileEntities = newTileEntities;
+        index = null;
+    }
+
+    /**
+     * Get the sort key used by <code>sortByChunk()</code>. Reversed lists
+     * are iterated backwards, so their keys are inverted to keep chunks in
+     * ascending Y order when walked.
+     *
+     * @param packed
+     * @return
+     */
+    private long chunkKey(long packed) {
+        int x = BlockPosition.getX(packed);
+        int y = BlockPosition.getY(packed);
+        int z = BlockPosition.getZ(packed);
+
+        long key = ((long) ((x >> 4) & 0x3FFFFF) << 42)
+                | ((long) ((z >> 4) & 0x3FFFFF) << 20)
+                | ((long) (y & 0xFFF) << 8)
+                | ((z & 15) << 4) | (x & 15);
+
+        return isReversed ? ~key : key;
+    }
+
+    /**
+     * Stable merge sort of indices by key.
+     *
+     * @param order
+     * @param temp
+     * @param keys
+     * @param from inclusive
+     * @param to exclusive
+     */
+    private static void mergeSort(int[] order, int[] temp, long[] keys,
+            int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(order, temp, keys, from, mid);
+        mergeSort(order, temp, keys, mid, to);
+
+        if (keys[order[mid - 1]] <= keys[order[mid]]) {
+            return;
+        }
+
+        System.arraycopy(order, from, temp, from, to - from);
+
+        int i = from;
+        int j = mid;
+        int k = from;
+
+        while (i < mid && j < to) {
+            if (keys[temp[j]] < keys[temp[i]]) {
+                order[k++] = temp[j++];
+            } else {
+                order[k++] = temp[i++];
+            }
+        }
+        while (i < mid) {
+            order[k++] = temp[i++];
+        }
+        while (j < to) {
+            order[k++] = temp[j++];
+        }
+    }
+
+    /**
+     * Find the first entry for a packed position, building the index if
+     * it doesn't exist yet.
+     *
+     * @param packed
+     * @return entry index, or -1 if the position isn't in the list
+     */
+    private int indexOf(long packed) {
+        if (index == null) {
+            rebuildIndex(INITIAL_CAPACITY * 2);
+        }
+
+        int mask = index.length - 1;
+        int slot = BlockPosition.hash(packed) & mask;
+
+        while (true) {
+            int entry = index[slot];
+
+            if (entry == 0) {
+                return -1;
+            } else if (positions[entry - 1] == packed) {
+                return entry - 1;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Add an entry to the index, growing the table to keep it at most half
+     * full.
+     *
+     * @param entry
+     */
+    private void addToIndex(int entry) {
+        if ((entry + 1) * 2 > index.length) {
+            rebuildIndex(index.length * 2);
+        }
+
+        insert(index, entry);
+    }
+
+    /**
+     * Build the index from scratch.
+     *
+     * @param capacity minimum table size, a power of two
+     */
+    private void rebuildIndex(int capacity) {
+        while (capacity < size * 2) {
+            capacity *= 2;
+        }
+
+        index = new int[capacity];
+
+        for (int i = 0; i < size; ++i) {
+            insert(index, i);
+        }
+    }
+
+    /**
+     * Insert an entry into a table. If the position is already in the
+     * table, the earlier entry is kept.
+     *
+     * @param table
+     * @param entry
+     */
+    private void insert(int[] table, int entry) {
+        long packed = positions[entry];
+        int mask = table.length - 1;
+        int slot = BlockPosition.hash(packed) & mask;
+
+        while (table[slot] != 0) {
+            if (positions[table[slot] - 1] == packed) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = entry + 1;
+    }
+
+    /**
+     * Double the capacity of the arrays.
+     */
+    private void grow() {
+        int capacity = positions.length * 2;
+
+        long[] newPositions = new long[capacity];
+        short[] newTypes = new short[capacity];
+        byte[] newData = new byte[capacity];
+
+        System.arraycopy(positions, 0, newPositions, 0, size);
+        System.arraycopy(types, 0, newTypes, 0, size);
+        System.arraycopy(data, 0, newData, 0, size);
+
+        positions = newPositions;
+        types = newTypes;
+        data = newData;
+    }
+
+    /**
+     * Returns whether a block type may have a tile entity stored for it.
+     *
+     * @param type
+     * @return
+     */
+    private static boolean mayHaveTileEntity(int type) {
+        return type == BlockID.SIGN_POST
+                || type == BlockID.WALL_SIGN
+                || type == BlockID.CHEST
+                || type == BlockID.FURNACE
+                || type == BlockID.BURNING_FURNACE
+                || type == BlockID.DISPENSER
+                || type == BlockID.MOB_SPAWNER
+                || type == BlockID.NOTE_BLOCK;
+    }
+
+    /**
+     * Walks the list without creating an object per entry. The block
+     * returned by <code>getBlock()</code> is reused between entries unless
+     * it is a tile entity block, so it must not be kept around.
+     */
+    public class Cursor {
+        private int index;
+        private BaseBlock block = new BaseBlock(0);
+
+        private Cursor() {
+            index = isReversed ? size : -1;
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return false if there are no more entries
+         */
+        public boolean next() {
+            if (isReversed) {
+                return --index >= 0;
+            } else {
+                return ++index < size;
+            }
+        }
+
+        public int getX() {
+            return BlockPosition.getX(positions[index]);
+        }
+
+        public int getY() {
+            return BlockPosition.getY(positions[index]);
+        }
+
+        public int getZ() {
+            return BlockPosition.getZ(positions[index]);
+        }
+
+        public int getType() {
+            return types[index] & 0xFFFF;
+        }
+
+        public int getData() {
+            return data[index] & 0xFF;
+        }
+
+        /**
+         * Get the position of the current entry.
+         *
+         * @return
+         */
+        public BlockVector getPosition() {
+            return new BlockVector(getX(), getY(), getZ());
+        }
+
+        /**
+         * Get the block of the current entry.
+         *
+         * @return
+         */
+        public BaseBlock getBlock() {
+            int type = getType();
+
+            if (mayHaveTileEntity(type) && !tileEntities.isEmpty()) {
+                BaseBlock tileEntity = tileEntities.get(index);
+                if (tileEntity != null) {
+                    return tileEntity;
+                }
+            }
+
+            block.setType(type);
+            block.setData(getData());
+            return block;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import com.sk89q.worldedit.regions.ChunkColumns;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Counts the blocks of each type in a region without holding up the
+ * server. The blocks of each chunk are copied on the server thread, a few
+ * chunks every tick, and counted by the analysis threads. Each thread
+ * keeps its own histogram and they are added up once every chunk has been
+ * counted, at which point <code>finish()</code> is called on the server
+ * thread.
+ *
+ * @author sk89q
+ */
+public abstract class BlockCountTask implements Runnable {
+    /**
+     * Number of chunks allowed to wait for counting per thread.
+     */
+    private static final int PENDING_PER_THREAD = 4;
+
+    private WorldEdit worldEdit;
+    private LocalPlayer player;
+    private LocalWorld world;
+    private ExecutorService executor;
+    private int maxPending;
+    private long maxTickTime;
+    private int minY;
+    private int maxY;
+    private List<ChunkColumns> chunks;
+    private int nextChunk = 0;
+    private List<Future<?>> pending = new LinkedList<Future<?>>();
+    private final List<int[]> histograms = new ArrayList<int[]>();
+    private final ThreadLocal<int[]> histogram = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int[] counts = new int[256];
+            synchronized (histograms) {
+                histograms.add(counts);
+            }
+            return counts;
+        }
+    };
+    private int taskId = -1;
+    private boolean failed = false;
+    private boolean done = false;
+
+    /**
+     * Construct the task. The parts of the region to count are worked out
+     * now, so the region may change afterwards.
+     *
+     * @param worldEdit
+     * @param player player to report errors to
+     * @param world
+     * @param region
+     */
+    public BlockCountTask(WorldEdit worldEdit, LocalPlayer player,
+            LocalWorld world, Region region) {
+        LocalConfiguration config = worldEdit.getConfiguration();
+
+        this.worldEdit = worldEdit;
+        this.player = player;
+        this.world = world;
+        this.executor = worldEdit.getAnalysisExecutor();
+        this.maxPending = worldEdit.getAnalysisThreads() * PENDING_PER_THREAD;
+        this.maxTickTime = config.flushMaxTickTime > 0
+                ? config.flushMaxTickTime : -1;
+
+        minY = region.getMinimumPoint().getBlockY();
+        maxY = region.getMaximumPoint().getBlockY();
+        chunks = ChunkColumns.getColumns(region);
+    }
+
+    /**
+     * Start counting. If the server can't run tasks, the blocks are
+     * counted before this method returns.
+     */
+    public void start() {
+        taskId = worldEdit.getServer().schedule(1, 1, this);
+
+        if (taskId == -1) {
+            complete();
+        }
+    }
+
+    /**
+     * Copy the next few chunks and check whether counting has finished.
+     */
+    public void run() {
+        if (done) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        while (nextChunk < chunks.size() && pending.size() < maxPending) {
+            submit(chunks.get(nextChunk++));
+
+            if (maxTickTime >= 0
+                    && System.currentTimeMillis() - start >= maxTickTime) {
+                break;
+            }
+        }
+
+        collect(false);
+
+        if (nextChunk == chunks.size() && pending.isEmpty()) {
+            finishCount();
+        }
+    }
+
+    /**
+     * Count the rest of the blocks immediately.
+     */
+    public void complete() {
+        if (done) {
+            return;
+        }
+
+        while (nextChunk < chunks.size()) {
+            if (pending.size() >= maxPending) {
+                collect(true);
+            }
+
+            submit(chunks.get(nextChunk++));
+        }
+
+        collect(true);
+        finishCount();
+    }
+
+    /**
+     * Called on the server thread with the number of blocks of each type.
+     *
+     * @param counts counts indexed by block type
+     */
+    protected abstract void finish(int[] counts);
+
+    /**
+     * Copy the blocks of a chunk and hand them to a thread to count.
+     *
+     * @param area
+     */
+    private void submit(final ChunkColumns area) {
+        final byte[] types = new byte[area.getWidth() * area.getLength()
+                * (maxY - minY + 1)];
+
+        world.getBlocks(new Vector(area.getMinX(), minY, area.getMinZ()),
+                new Vector(area.getMaxX(), maxY, area.getMaxZ()), types, null);
+
+        try {
+            pending.add(executor.submit(new Runnable() {
+                public void run() {
+                    count(area, types, histogram.get());
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            // The threads were shut down
+            failed = true;
+            nextChunk = chunks.size();
+        }
+    }
+
+    /**
+     * Count the blocks copied from the columns of a chunk.
+     *
+     * @param area
+     * @param types
+     * @param counts
+     */
+    private static void count(ChunkColumns area, byte[] types, int[] counts) {
+        if (area.isFull()) {
+            for (int i = 0; i < types.length; ++i) {
+                ++counts[types[i] & 0xFF];
+            }
+            return;
+        }
+
+        int width = area.getWidth();
+        int layer = width * area.getLength();
+
+        for (int z = area.getMinZ(); z <= area.getMaxZ(); ++z) {
+            for (int x = area.getMinX(); x <= area.getMaxX(); ++x) {
+                if (!area.contains(x, z)) {
+                    continue;
+                }
+
+                int column = (z - area.getMinZ()) * width + (x - area.getMinX());
+
+                for (int i = column; i < types.length; i += layer) {
+                    ++counts[types[i] & 0xFF];
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove finished counts from the list of pending ones.
+     *
+     * @param wait whether to wait for all of them to finish
+     */
+    private void collect(boolean wait) {
+        Iterator<Future<?>> it = pending.iterator();
+
+        while (it.hasNext()) {
+            Future<?> future = it.next();
+
+            if (!wait && !future.isDone()) {
+                continue;
+            }
+
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            } catch (ExecutionException e) {
+                WorldEdit.logger.log(Level.SEVERE,
+                        "WorldEdit: Failed to count blocks", e.getCause());
+                failed = true;
+            }
+
+            it.remove();
+        }
+    }
+
+    /**
+     * Stop the task and report the counts.
+     */
+    private void finishCount() {
+        done = true;
+
+        if (taskId != -1) {
+            worldEdit.getServer().cancelTask(taskId);
+        }
+
+        if (failed) {
+            player.printError("Failed to count the blocks.");
+            return;
+        }
+
+        int[] counts = new int[256];
+
+        synchronized (histograms) {
+            for (int[] threadCounts : histograms) {
+                for (int id = 0; id < counts.length; ++id) {
+                    counts[id] += threadCounts[id];
+                }
+            }
+        }
+
+        finish(counts);
+    }
+
+    /**
+     * Turn counts indexed by block type into a sorted block distribution.
+     *
+     * @param counts
+     * @return
+     */
+    public static List<Countable<Integer>> toDistribution(int[] counts) {
+        List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
+
+        for (int id = 0; id < counts.length; ++id) {
+            if (counts[id] > 0) {
+                distribution.add(new Countable<Integer>(id, counts[id]));
+            }
+        }
+
+        Collections.sort(distribution);
+
+        return distribution;
+    }
+}
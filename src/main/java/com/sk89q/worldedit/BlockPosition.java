@@ -0,0 +1,123 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Packs block positions into longs so that they can be used as keys
+ * without creating objects. X and Z get 26 bits each, which covers the
+ * range of a world, and Y gets the remaining 12 bits. Values outside of
+ * these ranges wrap around.
+ *
+ * @author sk89q
+ */
+public final class BlockPosition {
+    private BlockPosition() {
+    }
+
+    /**
+     * Pack a position into a long.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38)
+                | ((long) (z & 0x3FFFFFF) << 12)
+                | (long) (y & 0xFFF);
+    }
+
+    /**
+     * Pack a position into a long.
+     *
+     * @param pt
+     * @return
+     */
+    public static long pack(Vector pt) {
+        return pack(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Get the X coordinate of a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int getX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    /**
+     * Get the Y coordinate of a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int getY(long packed) {
+        return (int) ((packed << 52) >> 52);
+    }
+
+    /**
+     * Get the Z coordinate of a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int getZ(long packed) {
+        return (int) ((packed << 26) >> 38);
+    }
+
+    /**
+     * Get a packed position offset by some amount.
+     *
+     * @param packed
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long add(long packed, int x, int y, int z) {
+        return pack(getX(packed) + x, getY(packed) + y, getZ(packed) + z);
+    }
+
+    /**
+     * Unpack a position into a BlockVector.
+     *
+     * @param packed
+     * @return
+     */
+    public static BlockVector toBlockVector(long packed) {
+        return new BlockVector(getX(packed), getY(packed), getZ(packed));
+    }
+
+    /**
+     * Hash a packed position, or any other long, for use in an open
+     * addressing table. The bits are mixed so that neighbouring positions
+     * don't end up in neighbouring slots.
+     *
+     * @param packed
+     * @return
+     */
+    public static int hash(long packed) {
+        long h = packed * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
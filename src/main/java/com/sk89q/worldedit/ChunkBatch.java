@@ -0,0 +1,224 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * A batch of block changes inside one chunk, to be applied to a world in
+ * one go with {@link LocalWorld#setBlocks}. Changes are kept in the order
+ * they were added.
+ *
+ * @author sk89q
+ */
+public class ChunkBatch {
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Chunk X coordinate.
+     */
+    private int chunkX;
+    /**
+     * Chunk Z coordinate.
+     */
+    private int chunkZ;
+    /**
+     * Positions within the chunk, packed as x << 11 | z << 7 | y.
+     */
+    private short[] positions = new short[INITIAL_CAPACITY];
+    /**
+     * Block types.
+     */
+    private short[] types = new short[INITIAL_CAPACITY];
+    /**
+     * Block data, or -1 to leave the data alone.
+     */
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    /**
+     * Number of changes.
+     */
+    private int size = 0;
+    /**
+     * One bit for every position in the chunk, set if the batch has a
+     * change there.
+     */
+    private long[] present = new long[512];
+
+    /**
+     * Clear the batch and start a new one for a chunk.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void reset(int chunkX, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+
+        for (int i = 0; i < size; ++i) {
+            present[positions[i] >> 6] = 0;
+        }
+
+        size = 0;
+    }
+
+    /**
+     * Returns whether the batch already has a change at a position inside
+     * the batch's chunk.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean contains(int x, int y, int z) {
+        int position = (x & 15) << 11 | (z & 15) << 7 | (y & 127);
+        return (present[position >> 6] & (1L << (position & 63))) != 0;
+    }
+
+    /**
+     * Add a change. The position must be inside the batch's chunk and
+     * between 0 and 127 on the Y axis.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data data, or -1 to leave the block's data alone
+     */
+    public void add(int x, int y, int z, int type, int data) {
+        if (size == positions.length) {
+            int capacity = size * 2;
+            short[] newPositions = new short[capacity];
+            short[] newTypes = new short[capacity];
+            byte[] newData = new byte[capacity];
+            System.arraycopy(positions, 0, newPositions, 0, size);
+            System.arraycopy(types, 0, newTypes, 0, size);
+            System.arraycopy(this.data, 0, newData, 0, size);
+            positions = newPositions;
+            types = newTypes;
+            this.data = newData;
+        }
+
+        int position = (x & 15) << 11 | (z & 15) << 7 | (y & 127);
+        positions[size] = (short) position;
+        present[position >> 6] |= 1L << (position & 63);
+        types[size] = (short) type;
+        this.data[size] = (byte) data;
+        ++size;
+    }
+
+    /**
+     * Get the chunk X coordinate.
+     *
+     * @return
+     */
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    /**
+     * Get the chunk Z coordinate.
+     *
+     * @return
+     */
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the batch has no changes.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the X coordinate of a change within the chunk (0-15).
+     *
+     * @param i
+     * @return
+     */
+    public int getX(int i) {
+        return (positions[i] >> 11) & 15;
+    }
+
+    /**
+     * Get the Y coordinate of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getY(int i) {
+        return positions[i] & 127;
+    }
+
+    /**
+     * Get the Z coordinate of a change within the chunk (0-15).
+     *
+     * @param i
+     * @return
+     */
+    public int getZ(int i) {
+        return (positions[i] >> 7) & 15;
+    }
+
+    /**
+     * Get the world position of a change.
+     *
+     * @param i
+     * @return
+     */
+    public Vector getPosition(int i) {
+        return new Vector((chunkX << 4) + getX(i), getY(i),
+                (chunkZ << 4) + getZ(i));
+    }
+
+    /**
+     * Get the block type of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getType(int i) {
+        return types[i] & 0xFFFF;
+    }
+
+    /**
+     * Get the block data of a change.
+     *
+     * @param i
+     * @return data, or -1 if the block's data is left alone
+     */
+    public int getData(int i) {
+        return data[i];
+    }
+}
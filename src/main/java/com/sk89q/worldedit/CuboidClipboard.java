@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * The clipboard remembers the state of a cuboid region.
@@ -35,6 +36,11 @@ import java.util.zip.GZIPInputStream;
  * @author sk89q
  */
 public class CuboidClipboard {
+    /**
+     * Size of the buffers used to read and write schematics.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
     /**
      * Flip direction.
      */
@@ -44,7 +50,42 @@ public class CuboidClipboard {
         UP_DOWN
     }
 
-    private BaseBlock[][][] data;
+    /**
+     * Block types. Rotating or flipping the clipboard doesn't move the
+     * blocks; it only changes how positions are mapped to indices, as
+     * done by <code>getIndex()</code>.
+     */
+    private short[] ids;
+    /**
+     * Block data, two blocks to a byte with the lower index in the lower
+     * nibble.
+     */
+    private byte[] data;
+    /**
+     * Blocks with tile entity data, keyed by index.
+     */
+    private Map<Integer,BaseBlock> tileEntities =
+            new HashMap<Integer,BaseBlock>();
+    /**
+     * Whether the arrays and tile entities are shared with another
+     * clipboard, in which case they are replaced instead of being changed.
+     */
+    private boolean shared = false;
+    /**
+     * Index of the block at (0, 0, 0).
+     */
+    private int baseIndex;
+    /**
+     * Change in the index for each step along the X, Y and Z axes.
+     */
+    private int strideX;
+    private int strideY;
+    private int strideZ;
+    /**
+     * Number of times that the data of blocks is rotated by 90 degrees
+     * when they are read.
+     */
+    private int dataRotations;
     private Vector offset;
     private Vector origin;
     private Vector size;
@@ -56,7 +97,7 @@ public class CuboidClipboard {
      */
     public CuboidClipboard(Vector size) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         origin = new Vector();
         offset = new Vector();
     }
@@ -69,7 +110,7 @@ public class CuboidClipboard {
      */
     public CuboidClipboard(Vector size, Vector origin) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         this.origin = origin;
         offset = new Vector();
     }
@@ -83,11 +124,52 @@ public class CuboidClipboard {
      */
     public CuboidClipboard(Vector size, Vector origin, Vector offset) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         this.origin = origin;
         this.offset = offset;
     }
 
+    /**
+     * Constructs a clipboard that shares the contents of another.
+     *
+     * @param other
+     */
+    private CuboidClipboard(CuboidClipboard other) {
+        ids = other.ids;
+        data = other.data;
+        tileEntities = other.tileEntities;
+        baseIndex = other.baseIndex;
+        strideX = other.strideX;
+        strideY = other.strideY;
+        strideZ = other.strideZ;
+        dataRotations = other.dataRotations;
+        size = other.size;
+        origin = other.origin;
+        offset = other.offset;
+        shared = true;
+        other.shared = true;
+    }
+
+    /**
+     * Get a clipboard with the same contents as this one. The blocks are
+     * shared until either clipboard is changed, so this is cheap.
+     *
+     * @return
+     */
+    public CuboidClipboard duplicate() {
+        return new CuboidClipboard(this);
+    }
+
+    /**
+     * Get the estimated number of bytes used by the blocks of the
+     * clipboard.
+     *
+     * @return
+     */
+    public long getByteSize() {
+        return ids.length * 2L + data.length + tileEntities.size() * 128L;
+    }
+
     /**
      * Get the width (X-direction) of the clipboard.
      *
@@ -125,44 +207,23 @@ public class CuboidClipboard {
         if (angle % 90 != 0) { // Can only rotate 90 degrees at the moment
             return;
         }
-        boolean reverse = angle < 0;
-        int numRotations = (int)Math.floor(angle / 90.0);
+        int numRotations = ((angle / 90) + 4) % 4;
 
-        int width = getWidth();
-        int length = getLength();
-        int height = getHeight();
         Vector sizeRotated = size.transform2D(angle, 0, 0, 0, 0);
         int shiftX = sizeRotated.getX() < 0 ? -sizeRotated.getBlockX() - 1 : 0;
         int shiftZ = sizeRotated.getZ() < 0 ? -sizeRotated.getBlockZ() - 1 : 0;
 
-        BaseBlock newData[][][] = new BaseBlock
-                [Math.abs(sizeRotated.getBlockX())]
-                [Math.abs(sizeRotated.getBlockY())]
-                [Math.abs(sizeRotated.getBlockZ())];
-
-        for (int x = 0; x < width; ++x) {
-            for (int z = 0; z < length; ++z) {
-                Vector v = (new Vector(x, 0, z)).transform2D(angle, 0, 0, 0, 0);
-                int newX = v.getBlockX();
-                int newZ = v.getBlockZ();
-                for (int y = 0; y < height; ++y) {
-                    BaseBlock block = data[x][y][z];
-                    newData[shiftX + newX][y][shiftZ + newZ] = block;
-                    
-                    if (reverse) {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90Reverse();
-                        }
-                    } else {
-                        for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90();
-                        }
-                    }
-                }
-            }
+        // A block at (x, z) moves to (length - 1 - z, x) with each turn
+        int length = getLength();
+        for (int i = 0; i < numRotations; ++i) {
+            int oldStrideX = strideX;
+            baseIndex += (length - 1) * strideZ;
+            strideX = -strideZ;
+            strideZ = oldStrideX;
+            length = i % 2 == 0 ? getWidth() : getLength();
         }
 
-        data = newData;
+        dataRotations = (dataRotations + numRotations) % 4;
         size = new Vector(Math.abs(sizeRotated.getBlockX()),
                           Math.abs(sizeRotated.getBlockY()),
                           Math.abs(sizeRotated.getBlockZ()));
@@ -176,45 +237,17 @@ public class CuboidClipboard {
      * @param dir
      */
     public void flip(FlipDirection dir) {
-        int width = getWidth();
-        int length = getLength();
-        int height = getHeight();
-
         if (dir == FlipDirection.NORTH_SOUTH) {
-            int len = (int)Math.floor(width / 2);
-            for (int xs = 0; xs < len; ++xs) {
-                for (int z = 0; z < length; ++z) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[xs][y][z];
-                        old.flip();
-                        data[xs][y][z] = data[width - xs - 1][y][z];
-                        data[width - xs - 1][y][z] = old;
-                    }
-                }
-            }
+            baseIndex += (getWidth() - 1) * strideX;
+            strideX = -strideX;
+            dataRotations = (dataRotations + 2) % 4;
         } else if (dir == FlipDirection.WEST_EAST) {
-            int len = (int)Math.floor(length / 2);
-            for (int zs = 0; zs < len; ++zs) {
-                for (int x = 0; x < width; ++x) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[x][y][zs];
-                        old.flip();
-                        data[x][y][zs] = data[x][y][length - zs - 1];
-                        data[x][y][length - zs - 1] = old;
-                    }
-                }
-            }
+            baseIndex += (getLength() - 1) * strideZ;
+            strideZ = -strideZ;
+            dataRotations = (dataRotations + 2) % 4;
         } else if (dir == FlipDirection.UP_DOWN) {
-            int len = (int)Math.floor(height / 2);
-            for (int ys = 0; ys < len; ++ys) {
-                for (int x = 0; x < width; ++x) {
-                    for (int z = 0; z < length; ++z) {
-                        BaseBlock old = data[x][ys][z];
-                        data[x][ys][z] = data[x][height - ys - 1][z];
-                        data[x][height - ys - 1][z] = old;
-                    }
-                }
-            }
+            baseIndex += (getHeight() - 1) * strideY;
+            strideY = -strideY;
         }
     }
 
@@ -224,11 +257,39 @@ public class CuboidClipboard {
      * @param editSession
      */
     public void copy(EditSession editSession) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    data[x][y][z] =
-                        editSession.getBlock(new Vector(x, y, z).add(getOrigin()));
+        int width = size.getBlockX();
+        int height = size.getBlockY();
+        int length = size.getBlockZ();
+        byte[] blockTypes = new byte[ids.length];
+        byte[] blockData = new byte[ids.length];
+
+        editSession.getBlocks(getOrigin(),
+                getOrigin().add(width - 1, height - 1, length - 1),
+                blockTypes, blockData);
+
+        if (shared) {
+            // Everything is replaced, so there is nothing worth copying
+            tileEntities = new HashMap<Integer,BaseBlock>();
+            allocate();
+            shared = false;
+        } else {
+            tileEntities.clear();
+            resetTransform();
+        }
+
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    int index = getIndex(x, y, z);
+                    int type = blockTypes[index] & 0xFF;
+
+                    if (BlockType.hasTileEntity(type)) {
+                        setBlock(index, editSession.getBlock(
+                                new Vector(x, y, z).add(getOrigin())));
+                    } else {
+                        ids[index] = (short) type;
+                        setData(data, index, blockData[index]);
+                    }
                 }
             }
         }
@@ -260,11 +321,13 @@ public class CuboidClipboard {
         for (int x = 0; x < size.getBlockX(); ++x) {
             for (int y = 0; y < size.getBlockY(); ++y) {
                 for (int z = 0; z < size.getBlockZ(); ++z) {
-                    if (noAir && data[x][y][z].isAir())
+                    int index = getIndex(x, y, z);
+
+                    if (noAir && ids[index] == 0)
                         continue;
 
                     editSession.setBlock(new Vector(x, y, z).add(pos),
-                            data[x][y][z]);
+                            getBlock(index));
                 }
             }
         }
@@ -279,7 +342,238 @@ public class CuboidClipboard {
      * @throws ArrayIndexOutOfBoundsException
      */
     public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
-        return data[pos.getBlockX()][pos.getBlockY()][pos.getBlockZ()];
+        int x = pos.getBlockX();
+        int y = pos.getBlockY();
+        int z = pos.getBlockZ();
+
+        if (x < 0 || x >= getWidth() || y < 0 || y >= getHeight()
+                || z < 0 || z >= getLength()) {
+            throw new ArrayIndexOutOfBoundsException(pos.toString());
+        }
+
+        return getBlock(getIndex(x, y, z));
+    }
+
+    /**
+     * Get the index of a point in the arrays.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private int getIndex(int x, int y, int z) {
+        return baseIndex + x * strideX + y * strideY + z * strideZ;
+    }
+
+    /**
+     * Create empty arrays for the current size.
+     */
+    private void allocate() {
+        int volume = size.getBlockX() * size.getBlockY() * size.getBlockZ();
+        ids = new short[volume];
+        data = new byte[(volume + 1) >> 1];
+        tileEntities.clear();
+        resetTransform();
+    }
+
+    /**
+     * Map positions to indices in the order of the arrays, with
+     * <code>(y * length + z) * width + x</code>, and stop rotating data.
+     */
+    private void resetTransform() {
+        baseIndex = 0;
+        strideX = 1;
+        strideZ = size.getBlockX();
+        strideY = size.getBlockX() * size.getBlockZ();
+        dataRotations = 0;
+    }
+
+    /**
+     * Move the blocks in the arrays to where the rotations and flips
+     * have put them, so that the arrays are in order again.
+     */
+    private void applyTransform() {
+        int width = getWidth();
+        int height = getHeight();
+        int length = getLength();
+
+        if (baseIndex == 0 && strideX == 1 && strideZ == width
+                && strideY == width * length && dataRotations == 0) {
+            return;
+        }
+
+        short[] newIds = new short[ids.length];
+        byte[] newData = new byte[data.length];
+        Map<Integer,BaseBlock> newTileEntities =
+                new HashMap<Integer,BaseBlock>();
+        int newIndex = 0;
+
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    int index = getIndex(x, y, z);
+                    int type = ids[index] & 0xFFFF;
+                    int blockData;
+
+                    if (!tileEntities.isEmpty() && tileEntities.containsKey(index)) {
+                        BaseBlock block = getBlock(index);
+                        blockData = block.getData();
+                        newTileEntities.put(newIndex, block);
+                    } else {
+                        blockData = rotateData(type, getData(data, index));
+                    }
+
+                    newIds[newIndex] = (short) type;
+                    setData(newData, newIndex, blockData);
+                    ++newIndex;
+                }
+            }
+        }
+
+        ids = newIds;
+        data = newData;
+        tileEntities = newTileEntities;
+        shared = false;
+        resetTransform();
+    }
+
+    /**
+     * Rotate block data as many times as the clipboard has been rotated.
+     * 
+     * @param type
+     * @param blockData
+     * @return
+     */
+    private int rotateData(int type, int blockData) {
+        for (int i = 0; i < dataRotations; ++i) {
+            blockData = BlockData.rotate90(type, blockData);
+        }
+        return blockData;
+    }
+
+    /**
+     * Copy a block with tile entity data.
+     * 
+     * @param block
+     * @return
+     */
+    private static BaseBlock copyTileEntity(BaseBlock block) {
+        BaseBlock blockCopy = createTileEntityBlock(block.getType(),
+                block.getData());
+
+        if (blockCopy == null) {
+            return new BaseBlock(block.getType(), block.getData());
+        }
+
+        try {
+            TileEntityBlock tileEntityBlock = (TileEntityBlock) block;
+            Map<String,Tag> values = tileEntityBlock.toTileEntityNBT();
+            if (values != null) {
+                values = new HashMap<String,Tag>(values);
+                values.put("id", new StringTag("id",
+                        tileEntityBlock.getTileEntityID()));
+                ((TileEntityBlock) blockCopy).fromTileEntityNBT(values);
+            }
+        } catch (DataException e) {
+            // Keep the copy without the extra data
+        }
+
+        return blockCopy;
+    }
+
+    /**
+     * Create an empty block of a type that has tile entity data.
+     * 
+     * @param type
+     * @param data
+     * @return block, or null if the type has no tile entity data
+     */
+    private static BaseBlock createTileEntityBlock(int type, int data) {
+        if (type == BlockID.WALL_SIGN || type == BlockID.SIGN_POST) {
+            return new SignBlock(type, data);
+        } else if (type == BlockID.CHEST) {
+            return new ChestBlock(data);
+        } else if (type == BlockID.FURNACE || type == BlockID.BURNING_FURNACE) {
+            return new FurnaceBlock(type, data);
+        } else if (type == BlockID.DISPENSER) {
+            return new DispenserBlock(data);
+        } else if (type == BlockID.MOB_SPAWNER) {
+            return new MobSpawnerBlock(data);
+        } else if (type == BlockID.NOTE_BLOCK) {
+            return new NoteBlock(data);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the block at an index, with its data rotated. The block is a
+     * new object unless it has tile entity data and the clipboard has not
+     * been rotated.
+     * 
+     * @param index
+     * @return
+     */
+    private BaseBlock getBlock(int index) {
+        if (!tileEntities.isEmpty()) {
+            BaseBlock tileEntity = tileEntities.get(index);
+            if (tileEntity != null) {
+                if (dataRotations == 0) {
+                    return tileEntity;
+                }
+
+                BaseBlock block = copyTileEntity(tileEntity);
+                for (int i = 0; i < dataRotations; ++i) {
+                    block.rotate90();
+                }
+                return block;
+            }
+        }
+
+        int type = ids[index] & 0xFFFF;
+        return new BaseBlock(type, rotateData(type, getData(data, index)));
+    }
+
+    /**
+     * Set the block at an index.
+     * 
+     * @param index
+     * @param block
+     */
+    private void setBlock(int index, BaseBlock block) {
+        ids[index] = (short) block.getType();
+        setData(data, index, block.getData());
+
+        if (block instanceof TileEntityBlock) {
+            tileEntities.put(index, block);
+        } else if (!tileEntities.isEmpty()) {
+            tileEntities.remove(index);
+        }
+    }
+
+    /**
+     * Get the data nibble at an index.
+     * 
+     * @param data
+     * @param index
+     * @return
+     */
+    private static int getData(byte[] data, int index) {
+        return (data[index >> 1] >> ((index & 1) << 2)) & 0xF;
+    }
+
+    /**
+     * Set the data nibble at an index.
+     * 
+     * @param data
+     * @param index
+     * @param value
+     */
+    private static void setData(byte[] data, int index, int value) {
+        int shift = (index & 1) << 2;
+        data[index >> 1] = (byte) ((data[index >> 1] & ~(0xF << shift))
+                | ((value & 0xF) << shift));
     }
     
     /**
@@ -299,6 +593,8 @@ public class CuboidClipboard {
      * @throws DataException
      */
     public void saveSchematic(File path) throws IOException, DataException {
+        applyTransform();
+
         int width = getWidth();
         int height = getHeight();
         int length = getLength();
@@ -313,62 +609,77 @@ public class CuboidClipboard {
             throw new DataException("Length of region too large for a .schematic");
         }
 
-        HashMap<String,Tag> schematic = new HashMap<String,Tag>();
-        schematic.put("Width", new ShortTag("Width", (short)width));
-        schematic.put("Length", new ShortTag("Length", (short)length));
-        schematic.put("Height", new ShortTag("Height", (short)height));
-        schematic.put("Materials", new StringTag("Materials", "Alpha"));
-        schematic.put("WEOriginX", new IntTag("WEOriginX", getOrigin().getBlockX()));
-        schematic.put("WEOriginY", new IntTag("WEOriginY", getOrigin().getBlockY()));
-        schematic.put("WEOriginZ", new IntTag("WEOriginZ", getOrigin().getBlockZ()));
-        schematic.put("WEOffsetX", new IntTag("WEOffsetX", getOffset().getBlockX()));
-        schematic.put("WEOffsetY", new IntTag("WEOffsetY", getOffset().getBlockY()));
-        schematic.put("WEOffsetZ", new IntTag("WEOffsetZ", getOffset().getBlockZ()));
-
-        // Copy
-        byte[] blocks = new byte[width * height * length];
-        byte[] blockData = new byte[width * height * length];
-        ArrayList<Tag> tileEntities = new ArrayList<Tag>();
-
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    blocks[index] = (byte)data[x][y][z].getType();
-                    blockData[index] = (byte)data[x][y][z].getData();
-
-                    // Store TileEntity data
-                    if (data[x][y][z] instanceof TileEntityBlock) {
-                        TileEntityBlock tileEntityBlock =
-                                (TileEntityBlock)data[x][y][z];
-
-                        // Get the list of key/values from the block
-                        Map<String,Tag> values = tileEntityBlock.toTileEntityNBT();
-                        if (values != null) {
-                            values.put("id", new StringTag("id",
-                                    tileEntityBlock.getTileEntityID()));
-                            values.put("x", new IntTag("x", x));
-                            values.put("y", new IntTag("y", y));
-                            values.put("z", new IntTag("z", z));
-                            CompoundTag tileEntityTag =
-                                    new CompoundTag("TileEntity", values);
-                            tileEntities.add(tileEntityTag);
-                        }
-                    }
+        NBTWriter writer = new NBTWriter(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(path), BUFFER_SIZE),
+                BUFFER_SIZE));
+
+        try {
+            writer.writeStartCompound("Schematic");
+            writer.writeShort("Width", width);
+            writer.writeShort("Length", length);
+            writer.writeShort("Height", height);
+            writer.writeString("Materials", "Alpha");
+            writer.writeInt("WEOriginX", getOrigin().getBlockX());
+            writer.writeInt("WEOriginY", getOrigin().getBlockY());
+            writer.writeInt("WEOriginZ", getOrigin().getBlockZ());
+            writer.writeInt("WEOffsetX", getOffset().getBlockX());
+            writer.writeInt("WEOffsetY", getOffset().getBlockY());
+            writer.writeInt("WEOffsetZ", getOffset().getBlockZ());
+
+            // Write the blocks straight from the arrays
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            writer.writeStartByteArray("Blocks", ids.length);
+            for (int start = 0; start < ids.length; start += buffer.length) {
+                int count = Math.min(buffer.length, ids.length - start);
+                for (int i = 0; i < count; ++i) {
+                    buffer[i] = (byte) ids[start + i];
                 }
+                writer.writeBytes(buffer, 0, count);
             }
-        }
-        
-        schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
-        schematic.put("Data", new ByteArrayTag("Data", blockData));
-        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
-        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
 
-        // Build and output
-        CompoundTag schematicTag = new CompoundTag("Schematic", schematic);
-        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(path));
-        stream.writeTag(schematicTag);
-        stream.close();
+            writer.writeStartByteArray("Data", ids.length);
+            for (int start = 0; start < ids.length; start += buffer.length) {
+                int count = Math.min(buffer.length, ids.length - start);
+                for (int i = 0; i < count; ++i) {
+                    buffer[i] = (byte) getData(data, start + i);
+                }
+                writer.writeBytes(buffer, 0, count);
+            }
+
+            writer.writeStartList("Entities", NBTConstants.TYPE_COMPOUND, 0);
+            writer.writeEnd();
+
+            // Store TileEntity data
+            List<Map<String,Tag>> tileEntities = new ArrayList<Map<String,Tag>>();
+
+            for (Map.Entry<Integer,BaseBlock> entry : this.tileEntities.entrySet()) {
+                int index = entry.getKey();
+                TileEntityBlock tileEntityBlock = (TileEntityBlock)entry.getValue();
+
+                // Get the list of key/values from the block
+                Map<String,Tag> values = tileEntityBlock.toTileEntityNBT();
+                if (values != null) {
+                    values.put("id", new StringTag("id",
+                            tileEntityBlock.getTileEntityID()));
+                    values.put("x", new IntTag("x", index % width));
+                    values.put("y", new IntTag("y", index / (width * length)));
+                    values.put("z", new IntTag("z", (index / width) % length));
+                    tileEntities.add(values);
+                }
+            }
+
+            writer.writeStartList("TileEntities", NBTConstants.TYPE_COMPOUND,
+                    tileEntities.size());
+            for (Map<String,Tag> values : tileEntities) {
+                writer.writeTag(new CompoundTag("", values));
+            }
+            writer.writeEnd();
+
+            writer.writeEnd();
+        } finally {
+            writer.close();
+        }
     }
 
     /**
@@ -381,159 +692,295 @@ public class CuboidClipboard {
      */
     public static CuboidClipboard loadSchematic(File path)
             throws DataException, IOException {
-        FileInputStream stream = new FileInputStream(path);
-        NBTInputStream nbtStream = new NBTInputStream(
-                new GZIPInputStream(stream));
+        NBTReader reader = new NBTReader(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(path), BUFFER_SIZE),
+                BUFFER_SIZE));
 
-        Vector origin = new Vector();
-        Vector offset = new Vector();
+        try {
+            return loadSchematic(reader);
+        } finally {
+            reader.close();
+        }
+    }
 
+    /**
+     * Read a schematic into a clipboard. The blocks are read straight into
+     * the clipboard if the size of the schematic comes before them, as it
+     * does in schematics saved by WorldEdit.
+     * 
+     * @param reader
+     * @return clipboard
+     * @throws DataException
+     * @throws IOException
+     */
+    private static CuboidClipboard loadSchematic(NBTReader reader)
+            throws DataException, IOException {
         // Schematic tag
-        CompoundTag schematicTag = (CompoundTag)nbtStream.readTag();
-        if (!schematicTag.getName().equals("Schematic")) {
+        if (reader.next() != NBTReader.START
+                || reader.getType() != NBTConstants.TYPE_COMPOUND
+                || !reader.isNamed("Schematic")) {
             throw new DataException("Tag \"Schematic\" does not exist or is not first");
         }
 
+        int width = -1;
+        int length = -1;
+        int height = -1;
+        String materials = null;
+        Integer[] originOffset = new Integer[6];
+        CuboidClipboard clipboard = null;
+        boolean foundBlocks = false;
+        boolean foundData = false;
+        byte[] blocks = null;
+        byte[] blockData = null;
+        List<Map<String,Tag>> tileEntities = null;
+
+        while (reader.next() == NBTReader.START) {
+            if (reader.isNamed("Width")) {
+                checkType(reader, "Width", NBTConstants.TYPE_SHORT);
+                width = (short) reader.getInt();
+            } else if (reader.isNamed("Length")) {
+                checkType(reader, "Length", NBTConstants.TYPE_SHORT);
+                length = (short) reader.getInt();
+            } else if (reader.isNamed("Height")) {
+                checkType(reader, "Height", NBTConstants.TYPE_SHORT);
+                height = (short) reader.getInt();
+            } else if (reader.isNamed("Materials")) {
+                checkType(reader, "Materials", NBTConstants.TYPE_STRING);
+                materials = reader.getString();
+            } else if (reader.isNamed("Blocks")) {
+                checkType(reader, "Blocks", NBTConstants.TYPE_BYTE_ARRAY);
+                foundBlocks = true;
+                if (clipboard == null && width >= 0 && length >= 0 && height >= 0) {
+                    clipboard = new CuboidClipboard(
+                            new Vector(width, height, length));
+                }
+                if (clipboard != null) {
+                    clipboard.readBlocks(reader);
+                } else {
+                    blocks = reader.getByteArray();
+                }
+            } else if (reader.isNamed("Data")) {
+                checkType(reader, "Data", NBTConstants.TYPE_BYTE_ARRAY);
+                foundData = true;
+                if (clipboard == null && width >= 0 && length >= 0 && height >= 0) {
+                    clipboard = new CuboidClipboard(
+                            new Vector(width, height, length));
+                }
+                if (clipboard != null) {
+                    clipboard.readData(reader);
+                } else {
+                    blockData = reader.getByteArray();
+                }
+            } else if (reader.isNamed("TileEntities")) {
+                checkType(reader, "TileEntities", NBTConstants.TYPE_LIST);
+                tileEntities = new ArrayList<Map<String,Tag>>();
+                while (reader.next() == NBTReader.START) {
+                    Tag tag = reader.readTag();
+                    if (tag instanceof CompoundTag) {
+                        tileEntities.add(((CompoundTag) tag).getValue());
+                    }
+                }
+            } else {
+                int field = getOriginOffsetField(reader);
+                if (field != -1 && reader.getType() == NBTConstants.TYPE_INT) {
+                    originOffset[field] = reader.getInt();
+                } else {
+                    reader.skip();
+                }
+            }
+        }
+
         // Check
-        Map<String,Tag> schematic = schematicTag.getValue();
-        if (!schematic.containsKey("Blocks")) {
+        if (!foundBlocks) {
             throw new DataException("Schematic file is missing a \"Blocks\" tag");
         }
-
-        // Get information
-        short width = (Short)getChildTag(schematic, "Width", ShortTag.class).getValue();
-        short length = (Short)getChildTag(schematic, "Length", ShortTag.class).getValue();
-        short height = (Short)getChildTag(schematic, "Height", ShortTag.class).getValue();
-
-        try {
-            int originX = (Integer)getChildTag(schematic, "WEOriginX", IntTag.class).getValue();
-            int originY = (Integer)getChildTag(schematic, "WEOriginY", IntTag.class).getValue();
-            int originZ = (Integer)getChildTag(schematic, "WEOriginZ", IntTag.class).getValue();
-            origin = new Vector(originX, originY, originZ);
-        } catch (DataException e) {
-            // No origin data
+        if (width < 0) {
+            throw new DataException("Schematic file is missing a \"Width\" tag");
         }
-
-        try {
-            int offsetX = (Integer)getChildTag(schematic, "WEOffsetX", IntTag.class).getValue();
-            int offsetY = (Integer)getChildTag(schematic, "WEOffsetY", IntTag.class).getValue();
-            int offsetZ = (Integer)getChildTag(schematic, "WEOffsetZ", IntTag.class).getValue();
-            offset = new Vector(offsetX, offsetY, offsetZ);
-        } catch (DataException e) {
-            // No offset data
+        if (length < 0) {
+            throw new DataException("Schematic file is missing a \"Length\" tag");
+        }
+        if (height < 0) {
+            throw new DataException("Schematic file is missing a \"Height\" tag");
         }
 
         // Check type of Schematic
-        String materials = (String)getChildTag(schematic, "Materials", StringTag.class).getValue();
+        if (materials == null) {
+            throw new DataException("Schematic file is missing a \"Materials\" tag");
+        }
         if (!materials.equals("Alpha")) {
             throw new DataException("Schematic file is not an Alpha schematic");
         }
 
-        // Get blocks
-        byte[] blocks = (byte[])getChildTag(schematic, "Blocks", ByteArrayTag.class).getValue();
-        byte[] blockData = (byte[])getChildTag(schematic, "Data", ByteArrayTag.class).getValue();
+        if (!foundData) {
+            throw new DataException("Schematic file is missing a \"Data\" tag");
+        }
+        if (tileEntities == null) {
+            throw new DataException("Schematic file is missing a \"TileEntities\" tag");
+        }
 
-        // Need to pull out tile entities
-        List<Tag> tileEntities = (List<Tag>)((ListTag)getChildTag(schematic, "TileEntities", ListTag.class))
-                .getValue();
-        Map<BlockVector,Map<String,Tag>> tileEntitiesMap =
-                new HashMap<BlockVector,Map<String,Tag>>();
+        if (clipboard == null) {
+            clipboard = new CuboidClipboard(new Vector(width, height, length));
+        }
 
-        for (Tag tag : tileEntities) {
-            if (!(tag instanceof CompoundTag)) continue;
-            CompoundTag t = (CompoundTag)tag;
+        // The size came after the blocks, so they were kept in arrays
+        if (blocks != null) {
+            for (int index = 0; index < blocks.length
+                    && index < clipboard.ids.length; ++index) {
+                clipboard.ids[index] = (short) (blocks[index] & 0xFF);
+            }
+        }
+        if (blockData != null) {
+            for (int index = 0; index < blockData.length
+                    && index < clipboard.ids.length; ++index) {
+                setData(clipboard.data, index, blockData[index]);
+            }
+        }
 
-            int x = 0;
-            int y = 0;
-            int z = 0;
+        if (originOffset[0] != null && originOffset[1] != null
+                && originOffset[2] != null) {
+            clipboard.setOrigin(new Vector(originOffset[0],
+                    originOffset[1], originOffset[2]));
+        }
+        if (originOffset[3] != null && originOffset[4] != null
+                && originOffset[5] != null) {
+            clipboard.setOffset(new Vector(originOffset[3],
+                    originOffset[4], originOffset[5]));
+        }
 
-            Map<String,Tag> values = new HashMap<String,Tag>();
+        clipboard.readTileEntities(tileEntities);
 
-            for (Map.Entry<String,Tag> entry : t.getValue().entrySet()) {
-                if (entry.getKey().equals("x")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        x = ((IntTag)entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("y")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        y = ((IntTag)entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("z")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        z = ((IntTag)entry.getValue()).getValue();
-                    }
-                }
+        return clipboard;
+    }
+
+    /**
+     * Names of the origin and offset tags of a schematic.
+     */
+    private static final String[] ORIGIN_OFFSET_TAGS = {
+        "WEOriginX", "WEOriginY", "WEOriginZ",
+        "WEOffsetX", "WEOffsetY", "WEOffsetZ",
+    };
 
-                values.put(entry.getKey(), entry.getValue());
+    /**
+     * Get which origin or offset tag a reader is at.
+     * 
+     * @param reader
+     * @return index in <code>ORIGIN_OFFSET_TAGS</code>, or -1
+     */
+    private static int getOriginOffsetField(NBTReader reader) {
+        for (int i = 0; i < ORIGIN_OFFSET_TAGS.length; ++i) {
+            if (reader.isNamed(ORIGIN_OFFSET_TAGS[i])) {
+                return i;
             }
+        }
+        return -1;
+    }
 
-            BlockVector vec = new BlockVector(x, y, z);
-            tileEntitiesMap.put(vec, values);
-        }
-
-        Vector size = new Vector(width, height, length);
-        CuboidClipboard clipboard = new CuboidClipboard(size);
-        clipboard.setOrigin(origin);
-        clipboard.setOffset(offset);
-
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BlockVector pt = new BlockVector(x, y, z);
-                    BaseBlock block;
-
-                    if (blocks[index] == BlockID.WALL_SIGN || blocks[index] == BlockID.SIGN_POST) {
-                        block = new SignBlock(blocks[index], blockData[index]);
-                    } else if (blocks[index] == BlockID.CHEST) {
-                        block = new ChestBlock(blockData[index]);
-                    } else if (blocks[index] == BlockID.FURNACE || blocks[index] == BlockID.BURNING_FURNACE) {
-                        block = new FurnaceBlock(blocks[index], blockData[index]);
-                    } else if (blocks[index] == BlockID.DISPENSER) {
-                        block = new DispenserBlock(blockData[index]);
-                    } else if (blocks[index] == BlockID.MOB_SPAWNER) {
-                        block = new MobSpawnerBlock(blockData[index]);
-                    } else if (blocks[index] == BlockID.NOTE_BLOCK) {
-                        block = new NoteBlock(blockData[index]);
-                    } else {
-                        block = new BaseBlock(blocks[index], blockData[index]);
-                    }
-                    
-                    if (block instanceof TileEntityBlock 
-                            && tileEntitiesMap.containsKey(pt)) {
-                        ((TileEntityBlock)block).fromTileEntityNBT(
-                                tileEntitiesMap.get(pt));
-                    }
+    /**
+     * Read the block types of a schematic straight into the clipboard.
+     * 
+     * @param reader
+     * @throws IOException
+     */
+    private void readBlocks(NBTReader reader) throws IOException {
+        int count = Math.min(reader.startByteArray(), ids.length);
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (int start = 0; start < count; start += buffer.length) {
+            int n = Math.min(buffer.length, count - start);
+            reader.readBytes(buffer, 0, n);
+            for (int i = 0; i < n; ++i) {
+                ids[start + i] = (short) (buffer[i] & 0xFF);
+            }
+        }
+    }
 
-                    clipboard.data[x][y][z] = block;
-                }
+    /**
+     * Read the block data of a schematic straight into the clipboard.
+     * 
+     * @param reader
+     * @throws IOException
+     */
+    private void readData(NBTReader reader) throws IOException {
+        int count = Math.min(reader.startByteArray(), ids.length);
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (int start = 0; start < count; start += buffer.length) {
+            int n = Math.min(buffer.length, count - start);
+            reader.readBytes(buffer, 0, n);
+            for (int i = 0; i < n; ++i) {
+                setData(data, start + i, buffer[i]);
             }
         }
+    }
 
-        return clipboard;
+    /**
+     * Create the blocks with tile entities from the block types and the
+     * tile entities of a schematic.
+     * 
+     * @param tags
+     * @throws DataException
+     */
+    private void readTileEntities(List<Map<String,Tag>> tags)
+            throws DataException {
+        int width = getWidth();
+        int height = getHeight();
+        int length = getLength();
+        Map<Integer,Map<String,Tag>> tileEntitiesMap =
+                new HashMap<Integer,Map<String,Tag>>();
+
+        for (Map<String,Tag> values : tags) {
+            Tag x = values.get("x");
+            Tag y = values.get("y");
+            Tag z = values.get("z");
+
+            int bx = x instanceof IntTag ? ((IntTag) x).getValue() : 0;
+            int by = y instanceof IntTag ? ((IntTag) y).getValue() : 0;
+            int bz = z instanceof IntTag ? ((IntTag) z).getValue() : 0;
+
+            if (bx >= 0 && bx < width && by >= 0 && by < height
+                    && bz >= 0 && bz < length) {
+                tileEntitiesMap.put(getIndex(bx, by, bz), values);
+            }
+        }
+
+        for (int index = 0; index < ids.length; ++index) {
+            int type = ids[index];
+
+            if (!BlockType.hasTileEntity(type)) {
+                continue;
+            }
+
+            BaseBlock block = createTileEntityBlock(type, getData(data, index));
+
+            if (block == null) {
+                continue;
+            }
+
+            Map<String,Tag> values = tileEntitiesMap.get(index);
+
+            if (values != null) {
+                ((TileEntityBlock)block).fromTileEntityNBT(values);
+            }
+
+            tileEntities.put(index, block);
+        }
     }
 
     /**
-     * Get child tag of a NBT structure.
+     * Check the type of the tag that a reader is at.
      * 
-     * @param items
+     * @param reader
      * @param key
      * @param expected
-     * @return child tag
      * @throws DataException
      */
-    private static Tag getChildTag(Map<String,Tag> items, String key,
-            Class<? extends Tag> expected) throws DataException {
-        
-        if (!items.containsKey(key)) {
-            throw new DataException("Schematic file is missing a \"" + key + "\" tag");
-        }
-        Tag tag = items.get(key);
-        if (!expected.isInstance(tag)) {
-            throw new DataException(
-                key + " tag is not of tag type " + expected.getName());
+    private static void checkType(NBTReader reader, String key, int expected)
+            throws DataException {
+        if (reader.getType() != expected) {
+            throw new DataException(key + " tag is not of tag type "
+                    + NBTUtils.getTypeClass(expected).getName());
         }
-        return tag;
     }
 
     /**
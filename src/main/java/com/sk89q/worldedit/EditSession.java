@@ -19,16 +19,26 @@
 
 package com.sk89q.worldedit;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.Stack;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import com.sk89q.worldedit.regions.*;
 import com.sk89q.worldedit.util.TreeGenerator;
 import com.sk89q.worldedit.bags.*;
@@ -60,27 +70,29 @@ public class EditSession {
     /**
      * Stores the original blocks before modification.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> original =
-        new DoubleArrayList<BlockVector, BaseBlock>(
-            true);
+    private BlockChangeList original = new BlockChangeList(true);
     /**
      * Stores the current blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> current =
-        new DoubleArrayList<BlockVector, BaseBlock>(
-            false);
+    private BlockChangeList current = new BlockChangeList(false);
     /**
      * Blocks that should be placed before last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueAfter =
-        new DoubleArrayList<BlockVector, BaseBlock>(
-            false);
+    private BlockChangeList queueAfter = new BlockChangeList(false);
     /**
      * Blocks that should be placed last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueLast =
-        new DoubleArrayList<BlockVector, BaseBlock>(
-            false);
+    private BlockChangeList queueLast = new BlockChangeList(false);
+    
+    /**
+     * File that the history was moved to, if it is stored on disk.
+     */
+    private File historyFile;
+    
+    /**
+     * Number of changes in the history stored on disk.
+     */
+    private int storedHistorySize = 0;
     
     /**
      * The maximum number of blocks to change at a time. If this number is
@@ -96,10 +108,53 @@ public class EditSession {
     private boolean queued = false;
     
     /**
-     * Use the fast mode, which may leave chunks not flagged "dirty".
+     * Use the fast mode, which skips physics and doesn't tell clients about
+     * each change. Chunks changed while flushing the queue are sent to
+     * clients again afterwards.
      */
     private boolean fastMode = false;
     
+    /**
+     * Apply queued blocks grouped by chunk, and by Y within each chunk,
+     * when the queue is flushed.
+     */
+    private boolean buffered = false;
+    
+    /**
+     * Position in the queue while it is being flushed in parts.
+     */
+    private BlockChangeList.Cursor flushCursor;
+    
+    /**
+     * Indicates whether the partial flush has reached the last queue.
+     */
+    private boolean flushingLast = false;
+
+    /**
+     * Queued blocks waiting to be written to one chunk.
+     */
+    private ChunkBatch batch = new ChunkBatch();
+
+    /**
+     * Blocks in the batch that have extra data to copy once they are set.
+     */
+    private BlockChangeList batchTileEntities = new BlockChangeList(false);
+
+    /**
+     * Chunks written to by the current call to flush the queue.
+     */
+    private LongHashSet batchedChunks = new LongHashSet();
+    
+    /**
+     * Number of queued blocks applied by the current flush.
+     */
+    private int flushProgress = 0;
+    
+    /**
+     * Cache of blocks read from the world, or null if disabled.
+     */
+    private BlockCache blockCache;
+    
     /**
      * Block bag to use for getting blocks.
      */
@@ -156,6 +211,112 @@ public class EditSession {
      * @return Whether the block changed
      */
     public boolean rawSetBlock(Vector pt, BaseBlock block) {
+        if (!prepareSetBlock(pt, block)) {
+            return false;
+        }
+
+        int type = block.getType();
+        boolean result;
+
+        if (BlockType.usesData(type)) {
+            if (fastMode) {
+                result = world.setTypeIdAndDataFast(pt, type, block.getData());
+            } else {
+                result = world.setTypeIdAndData(pt, type, block.getData());
+            }
+        } else {
+            if (fastMode) {
+                result = world.setBlockTypeFast(pt, type);
+            } else {
+                result = world.setBlockType(pt, type);
+            }
+        }
+        //System.out.println(pt + "" +result);
+
+        copyExtraData(pt, block);
+        return result;
+    }
+
+    /**
+     * Sets a block without changing history as part of a batch. Blocks are
+     * collected until a block in another chunk comes along, and then all of
+     * them are written with one call to the world. The batch is also
+     * written when a block comes along for a position that is already in
+     * it, so that the block that will be replaced is read from the world
+     * as it would be without batching.
+     * 
+     * @param pt
+     * @param block
+     */
+    private void batchSetBlock(Vector pt, BaseBlock block) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        int z = pt.getBlockZ();
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+
+        if (!batch.isEmpty() && (batch.getChunkX() != chunkX
+                || batch.getChunkZ() != chunkZ
+                || batch.contains(x, y, z))) {
+            applyBatch();
+        }
+
+        if (!prepareSetBlock(pt, block)) {
+            return;
+        }
+
+        if (batch.isEmpty()) {
+            batch.reset(chunkX, chunkZ);
+            batchedChunks.add(BlockPosition.pack(chunkX, 0, chunkZ));
+        }
+
+        int type = block.getType();
+        batch.add(x, y, z, type,
+                BlockType.usesData(type) ? block.getData() : -1);
+
+        if (type != 0 && block instanceof TileEntityBlock) {
+            batchTileEntities.put(pt, block);
+        }
+    }
+
+    /**
+     * Write the blocks collected by <code>batchSetBlock()</code>.
+     */
+    private void applyBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        world.setBlocks(batch, fastMode);
+
+        // Blocks in the batch may have been read again before they were
+        // written
+        if (blockCache != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                blockCache.invalidate(batch.getPosition(i));
+            }
+        }
+
+        batch.reset(0, 0);
+
+        // Extra data can only be copied once the block is there
+        BlockChangeList.Cursor cursor = batchTileEntities.cursor();
+        while (cursor.next()) {
+            copyExtraData(cursor.getPosition(), cursor.getBlock());
+        }
+        batchTileEntities.clear();
+    }
+
+    /**
+     * Does everything that has to happen before a block is set: checks
+     * that the block can be placed, clears containers and updates the block
+     * bag.
+     * 
+     * @param pt
+     * @param block
+     * @return false if the block should not be set
+     */
+    private boolean prepareSetBlock(Vector pt, BaseBlock block) {
         int y = pt.getBlockY();
         int type = block.getType();
         
@@ -176,6 +337,10 @@ public class EditSession {
         
         int existing = world.getBlockType(pt);
 
+        if (blockCache != null) {
+            blockCache.invalidate(pt);
+        }
+
         // Clear the container block so that it doesn't drop items
         if (BlockType.isContainerBlock(existing) && blockBag == null) {
             world.clearContainerBlockContents(pt);
@@ -184,16 +349,14 @@ public class EditSession {
             world.setBlockType(pt, 0);
         }
 
-        int id = block.getType();
-
         if (blockBag != null) {
-            if (id > 0) {
+            if (type > 0) {
                 try {
-                    blockBag.fetchPlacedBlock(id);
+                    blockBag.fetchPlacedBlock(type);
                 } catch (UnplaceableBlockException e) {
                     return false;
                 } catch (BlockBagException e) {
-                    missingBlocks.add(id);
+                    missingBlocks.add(type);
                     return false;
                 }
             }
@@ -205,53 +368,47 @@ public class EditSession {
                 }
             }
         }
-        
-        boolean result;
 
-        if (BlockType.usesData(id)) {
-            if (fastMode) {
-                result = world.setTypeIdAndDataFast(pt, type, block.getData());
-            } else {
-                result = world.setTypeIdAndData(pt, type, block.getData());
-            }
-        } else {
-            if (fastMode) {
-                result = world.setBlockTypeFast(pt, id);
-            } else {
-                result = world.setBlockType(pt, id);
-            }
+        return true;
+    }
+
+    /**
+     * Copy the extra data of a block, such as the text of a sign, to the
+     * world once the block has been set.
+     * 
+     * @param pt
+     * @param block
+     */
+    private void copyExtraData(Vector pt, BaseBlock block) {
+        if (block.getType() == 0) {
+            return;
         }
-        //System.out.println(pt + "" +result);
-        
-        if (id != 0) {
-
-            // Signs
-            if (block instanceof SignBlock) {
-                SignBlock signBlock = (SignBlock) block;
-                world.copyToWorld(pt, signBlock);
-            // Chests
-            } else if (block instanceof ChestBlock && blockBag == null) {
-                ChestBlock chestBlock = (ChestBlock) block;
-                world.copyToWorld(pt, chestBlock);
-            // Furnaces
-            } else if (block instanceof FurnaceBlock && blockBag == null) {
-                FurnaceBlock furnaceBlock = (FurnaceBlock) block;
-                world.copyToWorld(pt, furnaceBlock);
-            // Dispenser
-            } else if (block instanceof DispenserBlock && blockBag == null) {
-                DispenserBlock dispenserBlock = (DispenserBlock) block;
-                world.copyToWorld(pt, dispenserBlock);
-            // Mob spawners
-            } else if (block instanceof MobSpawnerBlock) {
-                MobSpawnerBlock mobSpawnerblock = (MobSpawnerBlock) block;
-                world.copyToWorld(pt, mobSpawnerblock);
-            // Note blocks
-            } else if (block instanceof NoteBlock) {
-                NoteBlock noteBlock = (NoteBlock) block;
-                world.copyToWorld(pt, noteBlock);
-            }
+
+        // Signs
+        if (block instanceof SignBlock) {
+            SignBlock signBlock = (SignBlock) block;
+            world.copyToWorld(pt, signBlock);
+        // Chests
+        } else if (block instanceof ChestBlock && blockBag == null) {
+            ChestBlock chestBlock = (ChestBlock) block;
+            world.copyToWorld(pt, chestBlock);
+        // Furnaces
+        } else if (block instanceof FurnaceBlock && blockBag == null) {
+            FurnaceBlock furnaceBlock = (FurnaceBlock) block;
+            world.copyToWorld(pt, furnaceBlock);
+        // Dispenser
+        } else if (block instanceof DispenserBlock && blockBag == null) {
+            DispenserBlock dispenserBlock = (DispenserBlock) block;
+            world.copyToWorld(pt, dispenserBlock);
+        // Mob spawners
+        } else if (block instanceof MobSpawnerBlock) {
+            MobSpawnerBlock mobSpawnerblock = (MobSpawnerBlock) block;
+            world.copyToWorld(pt, mobSpawnerblock);
+        // Note blocks
+        } else if (block instanceof NoteBlock) {
+            NoteBlock noteBlock = (NoteBlock) block;
+            world.copyToWorld(pt, noteBlock);
         }
-        return result;
     }
 
     /**
@@ -266,17 +423,21 @@ public class EditSession {
      */
     public boolean setBlock(Vector pt, BaseBlock block)
             throws MaxChangedBlocksException {
-        BlockVector blockPt = pt.toBlockVector();
-
-        // if (!original.containsKey(blockPt)) {
-        original.put(blockPt, getBlock(pt));
+        // Only the first original state and the last current state of a
+        // block are kept. Both lists have an entry for every changed block
+        // in the same order, so the index in one is the index in the other
+        int index = original.indexOf(pt);
+
+        if (index == -1) {
+            if (maxBlocks != -1 && original.size() >= maxBlocks) {
+                throw new MaxChangedBlocksException(maxBlocks);
+            }
 
-        if (maxBlocks != -1 && original.size() > maxBlocks) {
-            throw new MaxChangedBlocksException(maxBlocks);
+            original.put(pt, getBlock(pt));
+            current.put(pt, block);
+        } else {
+            current.replace(index, block);
         }
-        // }
-
-        current.put(pt.toBlockVector(), block);
 
         return smartSetBlock(pt, block);
     }
@@ -289,10 +450,14 @@ public class EditSession {
      * @param block
      */
     public void rememberChange(Vector pt, BaseBlock existing, BaseBlock block) {
-        BlockVector blockPt = pt.toBlockVector();
+        int index = original.indexOf(pt);
 
-        original.put(blockPt, existing);
-        current.put(pt.toBlockVector(), block);
+        if (index == -1) {
+            original.put(pt, existing);
+            current.put(pt, block);
+        } else {
+            current.replace(index, block);
+        }
     }
 
     /**
@@ -308,6 +473,24 @@ public class EditSession {
         return setBlock(pt, pat.next(pt));
     }
 
+    /**
+     * Get the block of a pattern for a position. Patterns that can pick
+     * blocks by their coordinates are asked without making a vector.
+     * 
+     * @param pattern
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private static BaseBlock next(Pattern pattern, int x, int y, int z) {
+        if (pattern instanceof CoordinatePattern) {
+            return ((CoordinatePattern) pattern).next(x, y, z);
+        }
+
+        return pattern.next(new Vector(x, y, z));
+    }
+
     /**
      * Set a block only if there's no block already there.
      * 
@@ -336,14 +519,14 @@ public class EditSession {
         if (queued) {
             // Place torches, etc. last
             if (BlockType.shouldPlaceLast(block.getType())) {
-                queueLast.put(pt.toBlockVector(), block);
+                queueLast.put(pt, block);
                 return !(getBlockType(pt) == block.getType() 
                         && getBlockData(pt) == block.getData());
                 // Destroy torches, etc. first
             } else if (BlockType.shouldPlaceLast(getBlockType(pt))) {
                 rawSetBlock(pt, new BaseBlock(0));
             } else {
-                queueAfter.put(pt.toBlockVector(), block);
+                queueAfter.put(pt, block);
                 return !(getBlockType(pt) == block.getType() 
                         && getBlockData(pt) == block.getData());
             }
@@ -352,6 +535,36 @@ public class EditSession {
         return rawSetBlock(pt, block);
     }
 
+    /**
+     * Actually set the block. Will use queue. Queued blocks are added
+     * without creating a vector for them.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param block
+     * @return
+     */
+    public boolean smartSetBlock(int x, int y, int z, BaseBlock block) {
+        if (queued) {
+            // Place torches, etc. last
+            if (BlockType.shouldPlaceLast(block.getType())) {
+                queueLast.put(x, y, z, block);
+                return !(getBlockType(x, y, z) == block.getType()
+                        && getBlockData(x, y, z) == block.getData());
+                // Destroy torches, etc. first
+            } else if (!BlockType.shouldPlaceLast(getBlockType(x, y, z))) {
+                queueAfter.put(x, y, z, block);
+                return !(getBlockType(x, y, z) == block.getType()
+                        && getBlockData(x, y, z) == block.getData());
+            }
+
+            rawSetBlock(new Vector(x, y, z), new BaseBlock(0));
+        }
+
+        return rawSetBlock(new Vector(x, y, z), block);
+    }
+
     /**
      * Gets the block type at a position x, y, z.
      * 
@@ -391,6 +604,10 @@ public class EditSession {
              */
         }
 
+        if (blockCache != null) {
+            return blockCache.getBlockType(pt);
+        }
+
         return world.getBlockType(pt);
     }
     
@@ -406,8 +623,58 @@ public class EditSession {
              */
         }
 
+        if (blockCache != null) {
+            return blockCache.getBlockData(pt);
+        }
+
         return world.getBlockData(pt);
     }
+
+    /**
+     * Gets the block type at a position x, y, z.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return Block type
+     */
+    public int getBlockType(int x, int y, int z) {
+        if (blockCache != null) {
+            return blockCache.getBlockType(x, y, z);
+        }
+
+        return world.getBlockType(x, y, z);
+    }
+
+    /**
+     * Gets the block data at a position x, y, z.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return Block data
+     */
+    public int getBlockData(int x, int y, int z) {
+        if (blockCache != null) {
+            return blockCache.getBlockData(x, y, z);
+        }
+
+        return world.getBlockData(x, y, z);
+    }
+
+    /**
+     * Get the types and data of all the blocks in a cuboid at once. See
+     * {@link LocalWorld#getBlocks} for the layout of the arrays.
+     * 
+     * @param min
+     * @param max
+     * @param types
+     * @param data array to store block data in, or null
+     */
+    public void getBlocks(Vector min, Vector max, byte[] types, byte[] data) {
+        world.getBlocks(min, max, types, data);
+    }
+
     /**
      * Gets the block type at a position x, y, z.
      * 
@@ -415,8 +682,16 @@ public class EditSession {
      * @return BaseBlock
      */
     public BaseBlock rawGetBlock(Vector pt) {
-        int type = world.getBlockType(pt);
-        int data = world.getBlockData(pt);
+        int type;
+        int data;
+
+        if (blockCache != null) {
+            type = blockCache.getBlockType(pt);
+            data = blockCache.getBlockData(pt);
+        } else {
+            type = world.getBlockType(pt);
+            data = world.getBlockData(pt);
+        }
 
         // Sign
         if (type == BlockID.WALL_SIGN || type == BlockID.SIGN_POST) {
@@ -459,9 +734,14 @@ public class EditSession {
      * @param sess 
      */
     public void undo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
-            BlockVector pt = (BlockVector) entry.getKey();
-            sess.smartSetBlock(pt, (BaseBlock) entry.getValue());
+        if (!ensureHistoryLoaded()) {
+            return;
+        }
+
+        BlockChangeList.Cursor cursor = original.cursor();
+        while (cursor.next()) {
+            sess.smartSetBlock(cursor.getX(), cursor.getY(), cursor.getZ(),
+                    cursor.getBlock());
         }
         sess.flushQueue();
     }
@@ -472,9 +752,14 @@ public class EditSession {
      * @param sess 
      */
     public void redo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : current) {
-            BlockVector pt = (BlockVector) entry.getKey();
-            sess.smartSetBlock(pt, (BaseBlock) entry.getValue());
+        if (!ensureHistoryLoaded()) {
+            return;
+        }
+
+        BlockChangeList.Cursor cursor = current.cursor();
+        while (cursor.next()) {
+            sess.smartSetBlock(cursor.getX(), cursor.getY(), cursor.getZ(),
+                    cursor.getBlock());
         }
         sess.flushQueue();
     }
@@ -485,9 +770,121 @@ public class EditSession {
      * @return 
      */
     public int size() {
+        if (historyFile != null) {
+            return storedHistorySize;
+        }
         return original.size();
     }
 
+    /**
+     * Get an estimate of the number of bytes of memory used by the history
+     * of this edit session. History stored on disk is not counted.
+     * 
+     * @return
+     */
+    public long getHistoryByteSize() {
+        if (historyFile != null) {
+            return 0;
+        }
+        return original.getByteSize() + current.getByteSize();
+    }
+
+    /**
+     * Returns whether the history of this edit session is stored on disk.
+     * 
+     * @return
+     */
+    public boolean isHistoryStored() {
+        return historyFile != null;
+    }
+
+    /**
+     * Move the history of this edit session to a compressed file to free
+     * up memory. The history must be loaded again with
+     * <code>loadHistory()</code> before undoing or redoing.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void storeHistory(File file) throws IOException {
+        if (historyFile != null) {
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(
+                        new FileOutputStream(file))));
+
+        try {
+            original.write(out);
+            current.write(out);
+        } catch (IOException e) {
+            out.close();
+            file.delete();
+            throw e;
+        }
+
+        out.close();
+
+        storedHistorySize = original.size();
+        historyFile = file;
+        original.clear();
+        current.clear();
+    }
+
+    /**
+     * Load history that was moved to disk by <code>storeHistory()</code>.
+     * The file is deleted afterwards.
+     * 
+     * @throws IOException
+     */
+    public void loadHistory() throws IOException {
+        if (historyFile == null) {
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(
+                        new FileInputStream(historyFile))));
+
+        try {
+            original.read(in);
+            current.read(in);
+        } finally {
+            in.close();
+        }
+
+        historyFile.delete();
+        historyFile = null;
+    }
+
+    /**
+     * Load the history from disk if it was moved there.
+     * 
+     * @return false if the history could not be loaded
+     */
+    private boolean ensureHistoryLoaded() {
+        try {
+            loadHistory();
+            return true;
+        } catch (IOException e) {
+            WorldEdit.logger.log(Level.SEVERE,
+                    "WorldEdit: Failed to load history from " + historyFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Delete any history that was moved to disk.
+     */
+    public void deleteStoredHistory() {
+        if (historyFile != null) {
+            historyFile.delete();
+            historyFile = null;
+            storedHistorySize = 0;
+        }
+    }
+
     /**
      * Get the maximum number of blocks that can be changed. -1 will be returned
      * if disabled.
@@ -556,210 +953,242 @@ public class EditSession {
     }
 
     /**
-     * Finish off the queue.
+     * Set buffered mode. In buffered mode, the queue is applied chunk by
+     * chunk rather than in the order that the blocks were set. This only
+     * has an effect if the queue is enabled.
+     * 
+     * @param buffered
      */
-    public void flushQueue() {
-        if (!queued) {
-            return;
-        }
-
-        for (Map.Entry<BlockVector, BaseBlock> entry : queueAfter) {
-            BlockVector pt = (BlockVector) entry.getKey();
-            rawSetBlock(pt, (BaseBlock) entry.getValue());
-        }
+    public void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+    }
+    
+    /**
+     * Return buffered mode status.
+     * 
+     * @return
+     */
+    public boolean isBuffered() {
+        return buffered;
+    }
 
-        // We don't want to place these blocks if other blocks were missing
-        // because it might cause the items to drop
-        if (blockBag == null || missingBlocks.size() == 0) {
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueLast) {
-                BlockVector pt = (BlockVector) entry.getKey();
-                rawSetBlock(pt, (BaseBlock) entry.getValue());
-            }
+    /**
+     * Set whether blocks read from the world are cached. The cache sees
+     * blocks changed by this edit session but not changes made by anything
+     * else, and is cleared whenever the queue is flushed.
+     * 
+     * @param enabled
+     */
+    public void setBlockCacheEnabled(boolean enabled) {
+        if (!enabled) {
+            blockCache = null;
+        } else if (blockCache == null) {
+            blockCache = new BlockCache(world);
         }
+    }
 
-        queueAfter.clear();
-        queueLast.clear();
+    /**
+     * Get the block cache.
+     * 
+     * @return cache, or null if it is disabled
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
     }
 
     /**
-     * Fills an area recursively in the X/Z directions.
+     * Get the number of blocks waiting in the queue, including any that
+     * have already been applied by a partial flush.
      * 
-     * @param origin
-     * @param block
-     * @param radius
-     * @param depth
-     * @param recursive
-     * @return number of blocks affected
-     * @throws MaxChangedBlocksException 
+     * @return
      */
-    public int fillXZ(Vector origin, BaseBlock block, int radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
+    public int getQueueSize() {
+        return queueAfter.size() + queueLast.size();
+    }
 
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
+    /**
+     * Get the number of queued blocks applied so far by partial flushes.
+     * 
+     * @return
+     */
+    public int getQueueProgress() {
+        return flushProgress;
+    }
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+    /**
+     * Finish off the queue.
+     */
+    public void flushQueue() {
+        flushQueue(-1, -1);
+    }
 
-        queue.push(new BlockVector(originX, originY, originZ));
+    /**
+     * Apply part of the queue. Each call continues where the previous one
+     * stopped, so a large queue can be applied over several server ticks.
+     * 
+     * @param maxBlocks maximum number of blocks to apply, -1 for no limit
+     * @param maxTime maximum time to spend in milliseconds, -1 for no limit
+     * @return whether the queue has been completely flushed
+     */
+    public boolean flushQueue(int maxBlocks, long maxTime) {
+        if (blockCache != null) {
+            blockCache.clear();
+        }
 
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
+        if (!queued) {
+            return true;
+        }
 
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
+        if (flushCursor == null) {
+            if (buffered) {
+                queueAfter.sortByChunk();
+                queueLast.sortByChunk();
             }
 
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
+            flushCursor = queueAfter.cursor();
+            flushingLast = false;
+            flushProgress = 0;
+        }
 
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, block)) {
-                        ++affected;
-                    }
-                } else {
-                    continue;
-                }
+        long start = System.currentTimeMillis();
+        int applied = 0;
 
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
+        while (true) {
+            while (flushCursor.next()) {
+                batchSetBlock(flushCursor.getPosition(), flushCursor.getBlock());
+                ++flushProgress;
+                ++applied;
 
-                if (dist > radius) {
-                    continue;
+                if ((maxBlocks >= 0 && applied >= maxBlocks)
+                        || (maxTime >= 0
+                        && System.currentTimeMillis() - start >= maxTime)) {
+                    finishBatches();
+                    return false;
                 }
+            }
 
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, block, minY);
-                } else {
-                    continue;
-                }
+            applyBatch();
+
+            // We don't want to place these blocks if other blocks were missing
+            // because it might cause the items to drop
+            if (flushingLast || (blockBag != null && missingBlocks.size() > 0)) {
+                break;
             }
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
+            flushCursor = queueLast.cursor();
+            flushingLast = true;
         }
 
-        return affected;
+        finishBatches();
+        queueAfter.clear();
+        queueLast.clear();
+        flushCursor = null;
+        flushingLast = false;
+
+        return true;
     }
 
     /**
-     * Recursively fills a block and below until it hits another block.
-     * 
-     * @param x
-     * @param cy
-     * @param z
-     * @param block
-     * @param minY
-     * @throws MaxChangedBlocksException
-     * @return
+     * Write any batched blocks and, in fast mode, send every chunk that was
+     * changed to the clients once.
      */
-    private int fillY(int x, int cy, int z, BaseBlock block, int minY)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
+    private void finishBatches() {
+        applyBatch();
 
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, block);
-                ++affected;
-            } else {
-                break;
+        if (fastMode) {
+            for (int i = 0; i < batchedChunks.size(); ++i) {
+                long chunk = batchedChunks.get(i);
+                world.refreshChunk(BlockPosition.getX(chunk),
+                        BlockPosition.getZ(chunk));
             }
         }
 
-        return affected;
+        batchedChunks.clear();
     }
 
     /**
      * Fills an area recursively in the X/Z directions.
      * 
      * @param origin
-     * @param pattern
+     * @param block
      * @param radius
      * @param depth
      * @param recursive
      * @return number of blocks affected
      * @throws MaxChangedBlocksException 
      */
-    public int fillXZ(Vector origin, Pattern pattern, int radius, int depth,
+    public int fillXZ(Vector origin, BaseBlock block, int radius, int depth,
             boolean recursive) throws MaxChangedBlocksException {
+        return fillXZ(origin, new SingleBlockPattern(block), radius, depth,
+                recursive);
+    }
 
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
+    /**
+     * Fills an area recursively in the X/Z directions.
+     * 
+     * @param origin
+     * @param pattern
+     * @param radius
+     * @param depth
+     * @param recursive
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException 
+     */
+    public int fillXZ(final Vector origin, final Pattern pattern,
+            final int radius, int depth, boolean recursive)
+            throws MaxChangedBlocksException {
+        final int[] affected = new int[1];
+        final int originX = origin.getBlockX();
+        final int originY = origin.getBlockY();
+        final int originZ = origin.getBlockZ();
+        final int minY = originY - depth + 1;
+
+        FloodFill.Predicate isAir = new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return y >= 0 && y <= originY
+                        && getBlockType(x, y, z) == 0;
             }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+        };
+
+        FloodFill fill;
+        FloodFill.Visitor visitor;
+
+        if (recursive) {
+            fill = new FloodFill(isAir,
+                    FloodFill.withinSphere(origin, radius),
+                    FloodFill.Connectivity.FACES);
+            visitor = new FloodFill.Visitor() {
+                public boolean visit(int x, int y, int z)
+                        throws MaxChangedBlocksException {
+                    if (setBlock(new Vector(x, y, z), next(pattern, x, y, z))) {
+                        ++affected[0];
                     }
-                } else {
-                    continue;
+                    return true;
                 }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
+            };
+        } else {
+            FloodFill.Predicate inRange = new FloodFill.Predicate() {
+                public boolean test(int x, int y, int z) {
+                    double dist = Math.sqrt(Math.pow(originX - x, 2)
+                            + Math.pow(originZ - z, 2));
+                    return dist <= radius;
                 }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, pattern, minY);
-                } else {
-                    continue;
+            };
+            fill = new FloodFill(isAir, inRange,
+                    FloodFill.Connectivity.HORIZONTAL);
+            visitor = new FloodFill.Visitor() {
+                public boolean visit(int x, int y, int z)
+                        throws MaxChangedBlocksException {
+                    affected[0] += fillY(x, originY, z, pattern, minY);
+                    return true;
                 }
-            }
-
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
+            };
         }
 
-        return affected;
+        fill.addSeed(originX, originY, originZ);
+        fill.run(visitor);
+
+        return affected[0];
     }
 
     /**
@@ -781,7 +1210,7 @@ public class EditSession {
             Vector pt = new Vector(x, y, z);
 
             if (getBlock(pt).isAir()) {
-                setBlock(pt, pattern.next(pt));
+                setBlock(pt, next(pattern, x, y, z));
                 ++affected;
             } else {
                 break;
@@ -907,42 +1336,23 @@ public class EditSession {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int setBlocks(Region region, BaseBlock block)
+    public int setBlocks(Region region, final BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        final int[] affected = new int[1];
 
-                        if (setBlock(pt, block)) {
-                            ++affected;
-                        }
-                    }
-                }
+        region.visitBlocks(new RegionVisitor() {
+            public void visitChunk(int chunkX, int chunkZ) {
             }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, block)) {
-                    ++affected;
+
+            public void visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), block)) {
+                    ++affected[0];
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -953,42 +1363,23 @@ public class EditSession {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int setBlocks(Region region, Pattern pattern)
+    public int setBlocks(Region region, final Pattern pattern)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        final int[] affected = new int[1];
 
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
-                }
+        region.visitBlocks(new RegionVisitor() {
+            public void visitChunk(int chunkX, int chunkZ) {
             }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, pattern.next(pt))) {
-                    ++affected;
+
+            public void visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), next(pattern, x, y, z))) {
+                    ++affected[0];
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1000,52 +1391,30 @@ public class EditSession {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int replaceBlocks(Region region, Set<Integer> fromBlockTypes,
-            BaseBlock toBlock) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+    public int replaceBlocks(Region region, final Set<Integer> fromBlockTypes,
+            final BaseBlock toBlock) throws MaxChangedBlocksException {
+        final int[] affected = new int[1];
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        int curBlockType = getBlockType(pt);
-
-                        if ((fromBlockTypes == null && curBlockType != 0)
-                                || (fromBlockTypes != null && fromBlockTypes
-                                        .contains(curBlockType))) {
-                            if (setBlock(pt, toBlock)) {
-                                ++affected;
-                            }
-                        }
-                    }
-                }
+        region.visitBlocks(new RegionVisitor() {
+            public void visitChunk(int chunkX, int chunkZ) {
             }
-        } else {
-            for (Vector pt : region) {
+
+            public void visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
                 int curBlockType = getBlockType(pt);
 
-                if (fromBlockTypes == null && curBlockType != 0
-                        || fromBlockTypes.contains(curBlockType)) {
+                if ((fromBlockTypes == null && curBlockType != 0)
+                        || (fromBlockTypes != null && fromBlockTypes
+                                .contains(curBlockType))) {
                     if (setBlock(pt, toBlock)) {
-                        ++affected;
+                        ++affected[0];
                     }
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1057,52 +1426,30 @@ public class EditSession {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int replaceBlocks(Region region, Set<Integer> fromBlockTypes,
-            Pattern pattern) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+    public int replaceBlocks(Region region, final Set<Integer> fromBlockTypes,
+            final Pattern pattern) throws MaxChangedBlocksException {
+        final int[] affected = new int[1];
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        int curBlockType = getBlockType(pt);
-
-                        if ((fromBlockTypes == null && curBlockType != 0)
-                                || (fromBlockTypes != null && fromBlockTypes
-                                        .contains(curBlockType))) {
-                            if (setBlock(pt, pattern.next(pt))) {
-                                ++affected;
-                            }
-                        }
-                    }
-                }
+        region.visitBlocks(new RegionVisitor() {
+            public void visitChunk(int chunkX, int chunkZ) {
             }
-        } else {
-            for (Vector pt : region) {
+
+            public void visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
                 int curBlockType = getBlockType(pt);
 
-                if (fromBlockTypes == null && curBlockType != 0
-                        || fromBlockTypes.contains(curBlockType)) {
-                    if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+                if ((fromBlockTypes == null && curBlockType != 0)
+                        || (fromBlockTypes != null && fromBlockTypes
+                                .contains(curBlockType))) {
+                    if (setBlock(pt, next(pattern, x, y, z))) {
+                        ++affected[0];
                     }
                 }
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1284,7 +1631,7 @@ public class EditSession {
 
                     if (y + 1 <= 127 && !getBlock(new Vector(x, y, z)).isAir()
                             && getBlock(above).isAir()) {
-                        if (setBlock(above, pattern.next(above))) {
+                        if (setBlock(above, next(pattern, x, y + 1, z))) {
                             ++affected;
                         }
                         break;
@@ -1423,59 +1770,39 @@ public class EditSession {
      */
     public int drainArea(Vector pos, int radius)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        final int[] affected = new int[1];
+        final BaseBlock air = new BaseBlock(0);
+
+        FloodFill.Predicate isLiquid = new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                int type = getBlockType(x, y, z);
+                return type == 8 || type == 9 || type == 10 || type == 11;
+            }
+        };
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        FloodFill fill = new FloodFill(isLiquid,
+                FloodFill.withinSphere(pos, radius),
+                FloodFill.Connectivity.ALL);
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
                 for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    queue.push(new BlockVector(x, y, z));
+                    fill.addSeed(x, y, z);
                 }
             }
         }
 
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != 8 && type != 9 && type != 10 && type != 11) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
-            }
-
-            for (int x = cur.getBlockX() - 1; x <= cur.getBlockX() + 1; ++x) {
-                for (int z = cur.getBlockZ() - 1; z <= cur.getBlockZ() + 1; ++z) {
-                    for (int y = cur.getBlockY() - 1; y <= cur.getBlockY() + 1; ++y) {
-                        BlockVector newPos = new BlockVector(x, y, z);
-
-                        if (!cur.equals(newPos)) {
-                            queue.push(newPos);
-                        }
-                    }
+        fill.run(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), air)) {
+                    ++affected[0];
                 }
+                return true;
             }
+        });
 
-            if (setBlock(cur, new BaseBlock(0))) {
-                ++affected;
-            }
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1488,61 +1815,46 @@ public class EditSession {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fixLiquid(Vector pos, int radius, int moving, int stationary)
-            throws MaxChangedBlocksException {
-        int affected = 0;
+    public int fixLiquid(Vector pos, int radius, final int moving,
+            final int stationary) throws MaxChangedBlocksException {
+        final int[] affected = new int[1];
+        final BaseBlock stationaryBlock = new BaseBlock(stationary);
+
+        FloodFill.Predicate isLiquid = new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                int type = getBlockType(x, y, z);
+                return type == moving || type == stationary || type == 0;
+            }
+        };
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        FloodFill fill = new FloodFill(isLiquid,
+                FloodFill.withinSphere(pos, radius),
+                FloodFill.Connectivity.HORIZONTAL);
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
                 for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    int type = getBlock(new Vector(x, y, z)).getType();
+                    int type = getBlockType(x, y, z);
 
                     // Check block type
                     if (type == moving || type == stationary) {
-                        queue.push(new BlockVector(x, y, z));
+                        fill.addSeed(x, y, z);
                     }
                 }
             }
         }
 
-        BaseBlock stationaryBlock = new BaseBlock(stationary);
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != moving && type != stationary && type != 0) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            if (setBlock(cur, stationaryBlock)){
-                ++affected;
-            }
-
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
+        fill.run(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), stationaryBlock)) {
+                    ++affected[0];
+                }
+                return true;
             }
+        });
 
-            queue.push(cur.add(1, 0, 0).toBlockVector());
-            queue.push(cur.add(-1, 0, 0).toBlockVector());
-            queue.push(cur.add(0, 0, 1).toBlockVector());
-            queue.push(cur.add(0, 0, -1).toBlockVector());
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1622,6 +1934,11 @@ public class EditSession {
             height = 127 - pos.getBlockY() + 1;
         }
 
+        ShapeStencil stencil = ShapeStencil.getCylinder(radius, height, false);
+        if (stencil != null) {
+            return placeStencil(pos, stencil, block);
+        }
+
         affected += makeHCylinderPoints(pos, x, z, height, block);
 
         while (x < z) {
@@ -1708,6 +2025,11 @@ public class EditSession {
             height = 127 - pos.getBlockY() + 1;
         }
 
+        ShapeStencil stencil = ShapeStencil.getCylinder(radius, height, true);
+        if (stencil != null) {
+            return placeStencil(pos, stencil, block);
+        }
+
         affected += makeCylinderPoints(pos, x, z, height, block);
 
         while (x < z) {
@@ -1725,6 +2047,35 @@ public class EditSession {
         return affected;
     }
 
+    /**
+     * Set the blocks of a stencil around a position, one chunk at a time.
+     * 
+     * @param pos
+     * @param stencil
+     * @param block
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    private int placeStencil(Vector pos, ShapeStencil stencil, Pattern block)
+            throws MaxChangedBlocksException {
+        int affected = 0;
+        int centerX = pos.getBlockX();
+        int centerY = pos.getBlockY();
+        int centerZ = pos.getBlockZ();
+
+        for (int i : stencil.getChunkOrder(centerX, centerZ)) {
+            int x = centerX + stencil.getX(i);
+            int y = centerY + stencil.getY(i);
+            int z = centerZ + stencil.getZ(i);
+
+            if (setBlock(new Vector(x, y, z), next(block, x, y, z))) {
+                ++affected;
+            }
+        }
+
+        return affected;
+    }
+
     /**
      * Makes a sphere.
      * 
@@ -1737,6 +2088,11 @@ public class EditSession {
      */
     public int makeSphere(Vector pos, Pattern block, int radius,
             boolean filled) throws MaxChangedBlocksException {
+        ShapeStencil stencil = ShapeStencil.getSphere(radius, filled);
+        if (stencil != null) {
+            return placeStencil(pos, stencil, block);
+        }
+
         int affected = 0;
 
         for (int x = 0; x <= radius; ++x) {
@@ -2091,40 +2447,29 @@ public class EditSession {
      * @return
      */
     public int countBlocks(Region region, Set<Integer> searchIDs) {
-        int count = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+        final boolean[] search = new boolean[256];
+        final int[] count = new int[1];
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
+        for (int id : searchIDs) {
+            if (id >= 0 && id < search.length) {
+                search[id] = true;
+            }
+        }
 
-                        if (searchIDs.contains(getBlockType(pt))) {
-                            ++count;
-                        }
+        try {
+            region.visitBlocks(new ChunkReadingVisitor(region) {
+                @Override
+                protected void visit(int x, int y, int z, int type) {
+                    if (search[type]) {
+                        ++count[0];
                     }
                 }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (searchIDs.contains(getBlockType(pt))) {
-                    ++count;
-                }
-            }
+            });
+        } catch (MaxChangedBlocksException e) {
+            // Counting doesn't change any blocks
         }
 
-        return count;
+        return count[0];
     }
 
     /**
@@ -2134,55 +2479,20 @@ public class EditSession {
      * @return
      */
     public List<Countable<Integer>> getBlockDistribution(Region region) {
-        List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
-        Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        int id = getBlockType(pt);
+        final int[] counts = new int[256];
 
-                        if (map.containsKey(id)) {
-                            map.get(id).increment();
-                        } else {
-                            Countable<Integer> c = new Countable<Integer>(id, 1);
-                            map.put(id, c);
-                            distribution.add(c);
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                int id = getBlockType(pt);
-
-                if (map.containsKey(id)) {
-                    map.get(id).increment();
-                } else {
-                    Countable<Integer> c = new Countable<Integer>(id, 1);
-                    map.put(id, c);
+        try {
+            region.visitBlocks(new ChunkReadingVisitor(region) {
+                @Override
+                protected void visit(int x, int y, int z, int type) {
+                    ++counts[type];
                 }
-            }
+            });
+        } catch (MaxChangedBlocksException e) {
+            // Counting doesn't change any blocks
         }
 
-        Collections.sort(distribution);
-        // Collections.reverse(distribution);
-
-        return distribution;
+        return BlockCountTask.toDistribution(counts);
     }
 
     /**
@@ -2203,25 +2513,7 @@ public class EditSession {
             Vector pt = new Vector(x, y, z);
             int id = getBlockType(pt);
 
-            if (id == 1 // stone
-                    || id == 2 // grass
-                    || id == 3 // dirt
-                    || id == 7 // bedrock
-                    || id == 12 // sand
-                    || id == 13 // gravel
-                    || id == 82 // clay
-                    // hell
-                    || id == 87 // netherstone
-                    || id == 88 // slowsand
-                    || id == 89 // lightstone
-                    // ores
-                    || id == 14 // coal ore
-                    || id == 15 // iron ore
-                    || id == 16 // gold ore
-                    || id == 56 // diamond ore
-                    || id == 73 // redstone ore
-                    || id == 74 // redstone ore (active)
-            ) {
+            if (BlockType.isNaturalTerrainBlock(id)) {
                 return y;
             }
         }
@@ -2270,7 +2562,7 @@ public class EditSession {
      * @return
      */
     public int getBlockChangeCount() {
-        return original.size();
+        return size();
     }
 
     /**
@@ -2290,4 +2582,63 @@ public class EditSession {
     public void setMask(Mask mask) {
         this.mask = mask;
     }
+
+    /**
+     * Visits the blocks of a region with their types, reading the part of
+     * each chunk that is in the region in one go.
+     */
+    private abstract class ChunkReadingVisitor implements RegionVisitor {
+        private int minX;
+        private int minY;
+        private int minZ;
+        private int maxX;
+        private int maxY;
+        private int maxZ;
+        private int startX;
+        private int startZ;
+        private int width;
+        private int length;
+        private byte[] types;
+
+        public ChunkReadingVisitor(Region region) {
+            Vector min = region.getMinimumPoint();
+            Vector max = region.getMaximumPoint();
+            minX = min.getBlockX();
+            minY = min.getBlockY();
+            minZ = min.getBlockZ();
+            maxX = max.getBlockX();
+            maxY = max.getBlockY();
+            maxZ = max.getBlockZ();
+            types = new byte[16 * 16 * (maxY - minY + 1)];
+        }
+
+        public void visitChunk(int chunkX, int chunkZ) {
+            startX = Math.max(minX, chunkX << 4);
+            startZ = Math.max(minZ, chunkZ << 4);
+            int endX = Math.min(maxX, (chunkX << 4) + 15);
+            int endZ = Math.min(maxZ, (chunkZ << 4) + 15);
+            width = endX - startX + 1;
+            length = endZ - startZ + 1;
+
+            getBlocks(new Vector(startX, minY, startZ),
+                    new Vector(endX, maxY, endZ), types, null);
+        }
+
+        public void visit(int x, int y, int z) throws MaxChangedBlocksException {
+            visit(x, y, z, types[((y - minY) * length + (z - startZ)) * width
+                    + (x - startX)] & 0xFF);
+        }
+
+        /**
+         * Called for each block in the region.
+         * 
+         * @param x
+         * @param y
+         * @param z
+         * @param type
+         * @throws MaxChangedBlocksException
+         */
+        protected abstract void visit(int x, int y, int z, int type)
+                throws MaxChangedBlocksException;
+    }
 }
@@ -0,0 +1,286 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Iterative flood fill that works on runs of blocks along the X axis.
+ * Starting from a seed, the run of matching blocks to the left and right
+ * is found and visited in one go, and the rows next to the run are then
+ * scanned for new runs to start from. Visited blocks are kept in a
+ * {@link LongHashSet} and pending seeds in an array of packed positions,
+ * so no objects are created per block and the depth of the fill is not
+ * limited by the thread stack. No block is queued twice and, apart from
+ * the seeds that are added, only blocks in range are queued, so the queue
+ * never grows larger than the range.
+ *
+ * @author sk89q
+ */
+public class FloodFill {
+    /**
+     * Which neighbours of a block are connected to it.
+     */
+    public enum Connectivity {
+        /**
+         * The four neighbours on the same Y level.
+         */
+        HORIZONTAL(new int[][] {{0, -1}, {0, 1}}, false),
+        /**
+         * The six neighbours that share a face.
+         */
+        FACES(new int[][] {{0, -1}, {0, 1}, {-1, 0}, {1, 0}}, false),
+        /**
+         * All 26 surrounding blocks.
+         */
+        ALL(new int[][] {{0, -1}, {0, 1}, {-1, 0}, {1, 0},
+                {-1, -1}, {-1, 1}, {1, -1}, {1, 1}}, true);
+
+        /**
+         * Y and Z offsets of the neighbouring rows.
+         */
+        private final int[][] rows;
+        /**
+         * Whether blocks diagonally next to a run's ends are connected.
+         */
+        private final boolean diagonal;
+
+        private Connectivity(int[][] rows, boolean diagonal) {
+            this.rows = rows;
+            this.diagonal = diagonal;
+        }
+    }
+
+    /**
+     * Tests a block.
+     */
+    public interface Predicate {
+        /**
+         * Test a block.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return
+         */
+        public boolean test(int x, int y, int z);
+    }
+
+    /**
+     * Receives the blocks reached by the fill.
+     */
+    public interface Visitor {
+        /**
+         * Called once for each block reached by the fill.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return false to stop the fill
+         * @throws MaxChangedBlocksException
+         */
+        public boolean visit(int x, int y, int z)
+                throws MaxChangedBlocksException;
+    }
+
+    /**
+     * Initial capacity of the seed stack.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Predicate membership;
+    private Predicate range;
+    private Connectivity connectivity;
+    private LongHashSet visited = new LongHashSet();
+    private LongHashSet queued = new LongHashSet();
+    private long[] seeds = new long[INITIAL_CAPACITY];
+    private int seedCount = 0;
+
+    /**
+     * Construct the fill.
+     *
+     * @param membership tests whether a block should be filled
+     * @param range tests whether a block is close enough to be filled, or
+     *          null for no limit
+     * @param connectivity
+     */
+    public FloodFill(Predicate membership, Predicate range,
+            Connectivity connectivity) {
+        this.membership = membership;
+        this.range = range;
+        this.connectivity = connectivity;
+    }
+
+    /**
+     * Add a block to start from. Seeds that aren't members are ignored.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addSeed(int x, int y, int z) {
+        push(BlockPosition.pack(x, y, z));
+    }
+
+    /**
+     * Add a block to start from. Seeds that aren't members are ignored.
+     *
+     * @param pt
+     */
+    public void addSeed(Vector pt) {
+        addSeed(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Run the fill until every connected block has been visited or the
+     * visitor stops it.
+     *
+     * @param visitor
+     * @return false if the visitor stopped the fill
+     * @throws MaxChangedBlocksException
+     */
+    public boolean run(Visitor visitor) throws MaxChangedBlocksException {
+        int[][] rows = connectivity.rows;
+        int extra = connectivity.diagonal ? 1 : 0;
+
+        while (seedCount > 0) {
+            long seed = seeds[--seedCount];
+            int x = BlockPosition.getX(seed);
+            int y = BlockPosition.getY(seed);
+            int z = BlockPosition.getZ(seed);
+
+            if (!accepts(x, y, z)) {
+                continue;
+            }
+
+            // Find the ends of the run
+            int left = x;
+            while (accepts(left - 1, y, z)) {
+                --left;
+            }
+            int right = x;
+            while (accepts(right + 1, y, z)) {
+                ++right;
+            }
+
+            for (int cx = left; cx <= right; ++cx) {
+                visited.add(BlockPosition.pack(cx, y, z));
+            }
+
+            for (int cx = left; cx <= right; ++cx) {
+                if (!visitor.visit(cx, y, z)) {
+                    return false;
+                }
+            }
+
+            // Start new runs from the neighbouring rows
+            for (int[] row : rows) {
+                int ry = y + row[0];
+                int rz = z + row[1];
+                boolean inRun = false;
+
+                for (int cx = left - extra; cx <= right + extra; ++cx) {
+                    if (accepts(cx, ry, rz)) {
+                        if (!inRun) {
+                            push(BlockPosition.pack(cx, ry, rz));
+                            inRun = true;
+                        }
+                    } else {
+                        inRun = false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the set of visited blocks, packed with {@link BlockPosition}.
+     *
+     * @return
+     */
+    public LongHashSet getVisited() {
+        return visited;
+    }
+
+    /**
+     * Get the number of blocks visited.
+     *
+     * @return
+     */
+    public int getVisitedCount() {
+        return visited.size();
+    }
+
+    /**
+     * Returns whether a block should be visited.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private boolean accepts(int x, int y, int z) {
+        return !visited.contains(BlockPosition.pack(x, y, z))
+                && (range == null || range.test(x, y, z))
+                && membership.test(x, y, z);
+    }
+
+    /**
+     * Push a seed onto the stack, unless it has been queued before.
+     *
+     * @param packed
+     */
+    private void push(long packed) {
+        if (!queued.add(packed)) {
+            return;
+        }
+
+        if (seedCount == seeds.length) {
+            long[] newSeeds = new long[seeds.length * 2];
+            System.arraycopy(seeds, 0, newSeeds, 0, seedCount);
+            seeds = newSeeds;
+        }
+
+        seeds[seedCount++] = packed;
+    }
+
+    /**
+     * Get a range that includes blocks within a distance of a point.
+     *
+     * @param origin
+     * @param radius
+     * @return
+     */
+    public static Predicate withinSphere(Vector origin, double radius) {
+        final double ox = origin.getX();
+        final double oy = origin.getY();
+        final double oz = origin.getZ();
+        final double radiusSq = radius * radius;
+
+        return new Predicate() {
+            public boolean test(int x, int y, int z) {
+                double dx = x - ox;
+                double dy = y - oy;
+                double dz = z - oz;
+                return dx * dx + dy * dy + dz * dz <= radiusSq;
+            }
+        };
+    }
+}
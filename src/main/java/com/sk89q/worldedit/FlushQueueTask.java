@@ -0,0 +1,171 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Applies the queue of an edit session a few blocks at a time on every
+ * server tick so that large edits don't freeze the server. The edit
+ * session is only remembered in the player's history once all of its
+ * blocks have been placed, and starting another edit or undoing in the
+ * same session places the rest of the blocks immediately.
+ *
+ * @author sk89q
+ */
+public class FlushQueueTask implements Runnable {
+    /**
+     * Time between progress reports, in milliseconds.
+     */
+    private static final long REPORT_INTERVAL = 5000;
+
+    private WorldEdit worldEdit;
+    private LocalPlayer player;
+    private LocalSession session;
+    private EditSession editSession;
+    private int blocksPerTick;
+    private long maxTickTime;
+    private long start;
+    private long lastReport;
+    private int taskId = -1;
+    private boolean done = false;
+    private boolean remember = true;
+
+    /**
+     * Construct the task.
+     *
+     * @param worldEdit
+     * @param player
+     * @param session
+     * @param editSession
+     * @param start time that the operation was started at
+     */
+    public FlushQueueTask(WorldEdit worldEdit, LocalPlayer player,
+            LocalSession session, EditSession editSession, long start) {
+        LocalConfiguration config = worldEdit.getConfiguration();
+
+        this.worldEdit = worldEdit;
+        this.player = player;
+        this.session = session;
+        this.editSession = editSession;
+        this.blocksPerTick = config.flushBlocksPerTick;
+        this.maxTickTime = config.flushMaxTickTime > 0
+                ? config.flushMaxTickTime : -1;
+        this.start = start;
+        this.lastReport = System.currentTimeMillis();
+    }
+
+    /**
+     * Schedule the task with the server.
+     *
+     * @return false if the server does not support scheduling
+     */
+    public boolean schedule() {
+        taskId = worldEdit.getServer().schedule(1, 1, this);
+        return taskId != -1;
+    }
+
+    /**
+     * Apply the next part of the queue.
+     */
+    public void run() {
+        if (done) {
+            return;
+        }
+
+        if (editSession.flushQueue(blocksPerTick, maxTickTime)) {
+            finish();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastReport >= REPORT_INTERVAL) {
+            int total = editSession.getQueueSize();
+            int progress = editSession.getQueueProgress();
+
+            player.print("Edit " + (total > 0 ? progress * 100L / total : 100)
+                    + "% complete (" + progress + "/" + total + " blocks).");
+            lastReport = now;
+        }
+    }
+
+    /**
+     * Apply the rest of the queue immediately.
+     */
+    public void complete() {
+        if (done) {
+            return;
+        }
+
+        editSession.flushQueue();
+        finish();
+    }
+
+    /**
+     * Don't add the edit session to the session's history once it has been
+     * applied, because the history has been cleared.
+     */
+    public void discardHistory() {
+        remember = false;
+    }
+
+    /**
+     * Returns whether the queue has been completely applied.
+     *
+     * @return
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get the edit session being applied.
+     *
+     * @return
+     */
+    public EditSession getEditSession() {
+        return editSession;
+    }
+
+    /**
+     * Stop the task and store the edit session in history.
+     */
+    private void finish() {
+        done = true;
+
+        if (taskId != -1) {
+            worldEdit.getServer().cancelTask(taskId);
+        }
+
+        if (session.getFlushTask() == this) {
+            session.setFlushTask(null);
+        }
+
+        if (remember) {
+            session.remember(editSession);
+        }
+        worldEdit.removeFlushTask(this);
+
+        player.print("Edit complete (" + editSession.getQueueProgress()
+                + " blocks).");
+        worldEdit.printProfile(player, editSession,
+                System.currentTimeMillis() - start);
+        worldEdit.flushBlockBag(player, editSession);
+    }
+}
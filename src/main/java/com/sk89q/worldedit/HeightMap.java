@@ -19,6 +19,7 @@ package com.sk89q.worldedit;
 */
 
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockType;
 import com.sk89q.worldedit.filtering.HeightMapFilter;
 import com.sk89q.worldedit.regions.Region;
 
@@ -56,11 +57,34 @@ public class HeightMap {
         int minZ = region.getMinimumPoint().getBlockZ();
         int maxY = region.getMaximumPoint().getBlockY();
 
-        // Store current heightmap data
+        // Store current heightmap data, reading a chunk at a time
         data = new int[width * height];
-        for (int z = 0; z < height; ++z) {
-            for (int x = 0; x < width; ++x) {
-                data[z * width + x] = session.getHighestTerrainBlock(x + minX, z + minZ, minY, maxY);
+        int columnHeight = maxY - minY + 1;
+        byte[] types = new byte[16 * 16 * columnHeight];
+
+        for (int startX = 0; startX < width; startX = (((startX + minX) >> 4) + 1 << 4) - minX) {
+            for (int startZ = 0; startZ < height; startZ = (((startZ + minZ) >> 4) + 1 << 4) - minZ) {
+                int endX = Math.min(width, (((startX + minX) >> 4) + 1 << 4) - minX);
+                int endZ = Math.min(height, (((startZ + minZ) >> 4) + 1 << 4) - minZ);
+                int sliceWidth = endX - startX;
+                int sliceLength = endZ - startZ;
+
+                session.getBlocks(new Vector(startX + minX, minY, startZ + minZ),
+                        new Vector(endX - 1 + minX, maxY, endZ - 1 + minZ), types, null);
+
+                for (int z = startZ; z < endZ; ++z) {
+                    for (int x = startX; x < endX; ++x) {
+                        int y = maxY;
+                        int index = ((y - minY) * sliceLength + (z - startZ)) * sliceWidth + (x - startX);
+
+                        while (y > minY && !BlockType.isNaturalTerrainBlock(types[index] & 0xFF)) {
+                            --y;
+                            index -= sliceLength * sliceWidth;
+                        }
+
+                        data[z * width + x] = y;
+                    }
+                }
             }
         }
     }
@@ -0,0 +1,204 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Keeps track of the edit sessions remembered in the history of every
+ * session and enforces a server-wide memory budget on them. When the
+ * history takes up more memory than allowed, the least recently used edit
+ * sessions are moved to compressed files in a working directory and
+ * loaded back when they are undone or redone.
+ *
+ * @author sk89q
+ */
+public class HistoryStore {
+    /**
+     * Extension of history files.
+     */
+    private static final String EXTENSION = ".hist";
+
+    /**
+     * WorldEdit instance, for the configuration.
+     */
+    private WorldEdit worldEdit;
+    /**
+     * Remembered edit sessions, in order of last use.
+     */
+    private LinkedHashMap<EditSession, Boolean> entries =
+            new LinkedHashMap<EditSession, Boolean>(16, 0.75f, true);
+    /**
+     * Used to generate file names.
+     */
+    private long nextFileId = 0;
+    /**
+     * Whether old files have been cleared from the directory.
+     */
+    private boolean directoryCleared = false;
+
+    /**
+     * Construct the store.
+     *
+     * @param worldEdit
+     */
+    public HistoryStore(WorldEdit worldEdit) {
+        this.worldEdit = worldEdit;
+    }
+
+    /**
+     * Start tracking an edit session that was added to a history.
+     *
+     * @param editSession
+     */
+    public synchronized void add(EditSession editSession) {
+        entries.put(editSession, true);
+        enforceBudget(editSession);
+    }
+
+    /**
+     * Stop tracking an edit session that was removed from a history. Any
+     * history of it stored on disk is deleted.
+     *
+     * @param editSession
+     */
+    public synchronized void remove(EditSession editSession) {
+        entries.remove(editSession);
+        editSession.deleteStoredHistory();
+    }
+
+    /**
+     * Make sure that an edit session's history is in memory so that it can
+     * be undone or redone.
+     *
+     * @param editSession
+     * @return false if the history could not be loaded
+     */
+    public synchronized boolean load(EditSession editSession) {
+        if (entries.containsKey(editSession)) {
+            entries.get(editSession); // Mark as recently used
+        }
+
+        if (editSession.isHistoryStored()) {
+            try {
+                editSession.loadHistory();
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.SEVERE,
+                        "WorldEdit: Failed to load history", e);
+                return false;
+            }
+        }
+
+        enforceBudget(editSession);
+        return true;
+    }
+
+    /**
+     * Get the estimated number of bytes used by history in memory.
+     *
+     * @return
+     */
+    public synchronized long getMemoryUsage() {
+        long total = 0;
+        for (EditSession editSession : entries.keySet()) {
+            total += editSession.getHistoryByteSize();
+        }
+        return total;
+    }
+
+    /**
+     * Move the least recently used edit sessions to disk until the history
+     * fits in the budget again.
+     *
+     * @param keep edit session that should stay in memory
+     */
+    private void enforceBudget(EditSession keep) {
+        LocalConfiguration config = worldEdit.getConfiguration();
+
+        if (config.historyMemoryLimit < 0) {
+            return;
+        }
+
+        long budget = config.historyMemoryLimit * 1024L * 1024L;
+        long used = getMemoryUsage();
+
+        if (used <= budget) {
+            return;
+        }
+
+        File dir = getDirectory();
+
+        Iterator<Map.Entry<EditSession, Boolean>> it =
+                entries.entrySet().iterator();
+
+        while (used > budget && it.hasNext()) {
+            EditSession editSession = it.next().getKey();
+
+            if (editSession == keep || editSession.isHistoryStored()) {
+                continue;
+            }
+
+            long size = editSession.getHistoryByteSize();
+            File file = new File(dir, "edit-" + (nextFileId++) + EXTENSION);
+
+            try {
+                editSession.storeHistory(file);
+                used -= size;
+            } catch (IOException e) {
+                WorldEdit.logger.log(Level.WARNING,
+                        "WorldEdit: Failed to move history to " + file, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the directory to store history in, deleting files left over
+     * from a previous run the first time.
+     *
+     * @return
+     */
+    private File getDirectory() {
+        File dir = worldEdit.getWorkingDirectoryFile(
+                worldEdit.getConfiguration().historyDir);
+        dir.mkdirs();
+
+        if (!directoryCleared) {
+            File[] files = dir.listFiles();
+
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(EXTENSION)) {
+                        file.delete();
+                    }
+                }
+            }
+
+            directoryCleared = true;
+        }
+
+        return dir;
+    }
+}
@@ -61,6 +61,14 @@ public abstract class LocalConfiguration {
     public String saveDir = "schematics";
     public String scriptsDir = "craftscripts";
     public boolean showFirstUseVersion = true;
+    public boolean bufferedEdits = false;
+    public boolean blockCache = false;
+    public int flushBlocksPerTick = -1;
+    public int flushMaxTickTime = 25;
+    public int analysisThreads = 0;
+    public int schematicCacheSize = 16;
+    public int historyMemoryLimit = -1;
+    public String historyDir = "history";
     
     /**
      * Loads the configuration.
@@ -75,4 +83,20 @@ public abstract class LocalConfiguration {
     public File getWorkingDirectory() {
         return new File(".");
     }
+
+    /**
+     * Get a file relative to the working directory, unless the path is
+     * absolute.
+     * 
+     * @param path
+     * @return
+     */
+    public File getWorkingDirectoryFile(String path) {
+        File f = new File(path);
+        if (f.isAbsolute()) {
+            return f;
+        } else {
+            return new File(getWorkingDirectory(), path);
+        }
+    }
 }
@@ -55,6 +55,7 @@ public class LocalSession {
     public static int EXPIRATION_GRACE = 600000;
     
     private LocalConfiguration config;
+    private HistoryStore historyStore;
     
     private long expirationTime = 0;
     private LocalWorld selectionWorld;
@@ -77,6 +78,7 @@ public class LocalSession {
     private boolean fastMode = false;
     private Mask mask;
     private TimeZone timezone = TimeZone.getDefault();
+    private FlushQueueTask flushTask;
 
     /**
      * Construct the object.
@@ -105,10 +107,30 @@ public class LocalSession {
         this.timezone = timezone;
     }
 
+    /**
+     * Set the store that keeps track of the memory used by history.
+     * 
+     * @param historyStore store or null
+     */
+    public void setHistoryStore(HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
     /**
      * Clear history.
      */
     public void clearHistory() {
+        // The edit being placed must not be added to the cleared history
+        if (flushTask != null) {
+            flushTask.discardHistory();
+            flushTask = null;
+        }
+
+        if (historyStore != null) {
+            for (EditSession editSession : history) {
+                historyStore.remove(editSession);
+            }
+        }
         history.clear();
         historyPointer = 0;
     }
@@ -125,13 +147,58 @@ public class LocalSession {
 
         // Destroy any sessions after this undo point
         while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+            forget(history.remove(historyPointer));
         }
         history.add(editSession);
         while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+            forget(history.remove(0));
         }
         historyPointer = history.size();
+        
+        if (historyStore != null && history.contains(editSession)) {
+            historyStore.add(editSession);
+        }
+    }
+
+    /**
+     * Get the task that is placing the last edit over time.
+     * 
+     * @return task, or null if no edit is being placed
+     */
+    public FlushQueueTask getFlushTask() {
+        return flushTask;
+    }
+
+    /**
+     * Set the task that is placing the last edit over time. Its edit
+     * session is remembered when the task finishes.
+     * 
+     * @param flushTask task, or null
+     */
+    public void setFlushTask(FlushQueueTask flushTask) {
+        this.flushTask = flushTask;
+    }
+
+    /**
+     * Immediately finish placing the last edit if it is still being placed
+     * over time, so that a new edit sees its blocks and the history stays
+     * in order.
+     */
+    public void completeFlushTask() {
+        if (flushTask != null) {
+            flushTask.complete();
+        }
+    }
+
+    /**
+     * Called when an edit session is dropped from the history.
+     * 
+     * @param editSession
+     */
+    private void forget(EditSession editSession) {
+        if (historyStore != null) {
+            historyStore.remove(editSession);
+        }
     }
 
     /**
@@ -141,13 +208,18 @@ public class LocalSession {
      * @return whether anything was undone
      */
     public EditSession undo(BlockBag newBlockBag) {
+        completeFlushTask();
         --historyPointer;
         if (historyPointer >= 0) {
             EditSession editSession = history.get(historyPointer);
+            if (historyStore != null) {
+                historyStore.load(editSession);
+            }
             EditSession newEditSession =
                     new EditSession(editSession.getWorld(), -1, newBlockBag);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
+            newEditSession.setBuffered(config.bufferedEdits);
             editSession.undo(newEditSession);
             return editSession;
         } else {
@@ -163,12 +235,17 @@ public class LocalSession {
      * @return whether anything was redone
      */
     public EditSession redo(BlockBag newBlockBag) {
+        completeFlushTask();
         if (historyPointer < history.size()) {
             EditSession editSession = history.get(historyPointer);
+            if (historyStore != null) {
+                historyStore.load(editSession);
+            }
             EditSession newEditSession =
                 new EditSession(editSession.getWorld(), -1, newBlockBag);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
+            newEditSession.setBuffered(config.bufferedEdits);
             editSession.redo(newEditSession);
             ++historyPointer;
             return editSession;
@@ -655,6 +732,8 @@ public class LocalSession {
      * @return
      */
     public EditSession createEditSession(LocalPlayer player) {
+        completeFlushTask();
+
         BlockBag blockBag = getBlockBag(player);
         
         // Create an edit session
@@ -662,6 +741,8 @@ public class LocalSession {
                 new EditSession(player.getWorld(),
                         getBlockChangeLimit(), blockBag);
         editSession.setFastMode(fastMode);
+        editSession.setBuffered(config.bufferedEdits);
+        editSession.setBlockCacheEnabled(config.blockCache);
         editSession.setMask(mask);
         
         return editSession;
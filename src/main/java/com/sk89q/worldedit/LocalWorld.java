@@ -106,6 +106,106 @@ public abstract class LocalWorld {
      */
     public abstract int getBlockData(Vector pt);
 
+    /**
+     * Get block type. Implementations should override this to read the
+     * block without creating a vector.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        return getBlockType(new Vector(x, y, z));
+    }
+
+    /**
+     * Get block data. Implementations should override this to read the
+     * block without creating a vector.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockData(int x, int y, int z) {
+        return getBlockData(new Vector(x, y, z));
+    }
+
+    /**
+     * Get the types and data of all the blocks in a cuboid. The arrays must
+     * have room for every block in the cuboid, and blocks are stored at
+     * <code>((y - minY) * length + (z - minZ)) * width + (x - minX)</code>.
+     * Implementations should override this to read whole chunks at once.
+     * 
+     * @param min minimum point of the cuboid
+     * @param max maximum point of the cuboid
+     * @param types array to store block types in
+     * @param data array to store block data in, or null
+     */
+    public void getBlocks(Vector min, Vector max, byte[] types, byte[] data) {
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+        int index = 0;
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                for (int x = minX; x <= maxX; ++x) {
+                    Vector pt = new Vector(x, y, z);
+                    types[index] = (byte) getBlockType(pt);
+                    if (data != null) {
+                        data[index] = (byte) getBlockData(pt);
+                    }
+                    ++index;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of changes inside one chunk. Implementations should
+     * override this to look the chunk up once and to update lighting once
+     * per column rather than once per block.
+     * 
+     * @param batch
+     * @param fast true to skip physics, as the <code>Fast</code> setters do
+     */
+    public void setBlocks(ChunkBatch batch, boolean fast) {
+        for (int i = 0; i < batch.size(); ++i) {
+            Vector pt = batch.getPosition(i);
+            int type = batch.getType(i);
+            int data = batch.getData(i);
+
+            if (data < 0) {
+                if (fast) {
+                    setBlockTypeFast(pt, type);
+                } else {
+                    setBlockType(pt, type);
+                }
+            } else {
+                if (fast) {
+                    setTypeIdAndDataFast(pt, type, data);
+                } else {
+                    setTypeIdAndData(pt, type, data);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a chunk to the clients again. Used after blocks have been changed
+     * in fast mode, which does not tell clients about each change.
+     * 
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void refreshChunk(int chunkX, int chunkZ) {
+    }
+
     /**
      * Get block light level.
      * 
@@ -0,0 +1,231 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * A map with long keys that doesn't box them, meant to be used with
+ * positions packed by {@link BlockPosition}. Entries are kept in the order
+ * that they were added, so they can be walked by index, and an open
+ * addressing table with linear probing maps keys to their index. Entries
+ * can't be removed.
+ *
+ * @author sk89q
+ * @param <V> value type
+ */
+public class LongHashMap<V> {
+    /**
+     * Initial capacity of the entry arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Keys in the order that they were added.
+     */
+    private long[] keys;
+    /**
+     * Values, parallel to the keys.
+     */
+    private Object[] values;
+    /**
+     * Table of entry indices plus one, 0 being an empty slot.
+     */
+    private int[] table;
+    /**
+     * Number of entries.
+     */
+    private int size = 0;
+
+    /**
+     * Construct the map.
+     */
+    public LongHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct the map with room for a number of entries.
+     *
+     * @param capacity
+     */
+    public LongHashMap(int capacity) {
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        keys = new long[capacity];
+        values = new Object[capacity];
+        table = new int[LongHashSet.tableSize(capacity)];
+    }
+
+    /**
+     * Get the value for a key.
+     *
+     * @param key
+     * @return value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+        return index == -1 ? null : (V) values[index];
+    }
+
+    /**
+     * Returns whether the map has a key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * Set the value for a key.
+     *
+     * @param key
+     * @param value
+     * @return the previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int mask = table.length - 1;
+        int slot = BlockPosition.hash(key) & mask;
+
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (keys[index] == key) {
+                V old = (V) values[index];
+                values[index] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            grow();
+            return put(key, value);
+        }
+
+        keys[size] = key;
+        values[size] = value;
+        table[slot] = ++size;
+        return null;
+    }
+
+    /**
+     * Get the index of the entry for a key.
+     *
+     * @param key
+     * @return index, or -1 if the key is not in the map
+     */
+    public int indexOf(long key) {
+        int mask = table.length - 1;
+        int slot = BlockPosition.hash(key) & mask;
+
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (keys[index] == key) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the key of an entry by the order that it was added in.
+     *
+     * @param index between 0 and size() - 1
+     * @return
+     */
+    public long keyAt(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * Get the value of an entry by the order that it was added in.
+     *
+     * @param index between 0 and size() - 1
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        checkIndex(index);
+        return (V) values[index];
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the map is empty.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        table = new int[LongHashSet.tableSize(INITIAL_CAPACITY)];
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds");
+        }
+    }
+
+    /**
+     * Double the capacity of the map.
+     */
+    private void grow() {
+        int capacity = keys.length * 2;
+
+        long[] newKeys = new long[capacity];
+        Object[] newValues = new Object[capacity];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
+        keys = newKeys;
+        values = newValues;
+
+        table = new int[LongHashSet.tableSize(capacity)];
+        int mask = table.length - 1;
+
+        for (int i = 0; i < size; ++i) {
+            int slot = BlockPosition.hash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * A set of longs that doesn't box its elements, meant to be used with
+ * positions packed by {@link BlockPosition}. Elements are kept in an
+ * array in the order that they were added, and an open addressing table
+ * with linear probing maps them to their index. Elements can't be removed.
+ *
+ * @author sk89q
+ */
+public class LongHashSet {
+    /**
+     * Initial capacity of the element array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Elements in the order that they were added.
+     */
+    private long[] elements;
+    /**
+     * Table of element indices plus one, 0 being an empty slot.
+     */
+    private int[] table;
+    /**
+     * Number of elements.
+     */
+    private int size = 0;
+
+    /**
+     * Construct the set.
+     */
+    public LongHashSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct the set with room for a number of elements.
+     *
+     * @param capacity
+     */
+    public LongHashSet(int capacity) {
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        elements = new long[capacity];
+        table = new int[tableSize(capacity)];
+    }
+
+    /**
+     * Add an element.
+     *
+     * @param value
+     * @return true if the element was not already in the set
+     */
+    public boolean add(long value) {
+        int mask = table.length - 1;
+        int slot = BlockPosition.hash(value) & mask;
+
+        while (table[slot] != 0) {
+            if (elements[table[slot] - 1] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == elements.length) {
+            grow();
+            add(value);
+            return true;
+        }
+
+        elements[size] = value;
+        table[slot] = ++size;
+        return true;
+    }
+
+    /**
+     * Returns whether an element is in the set.
+     *
+     * @param value
+     * @return
+     */
+    public boolean contains(long value) {
+        int mask = table.length - 1;
+        int slot = BlockPosition.hash(value) & mask;
+
+        while (table[slot] != 0) {
+            if (elements[table[slot] - 1] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the number of elements.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the set is empty.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get an element by the order that it was added in.
+     *
+     * @param index between 0 and size() - 1
+     * @return
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds");
+        }
+        return elements[index];
+    }
+
+    /**
+     * Remove all elements.
+     */
+    public void clear() {
+        elements = new long[INITIAL_CAPACITY];
+        table = new int[tableSize(INITIAL_CAPACITY)];
+        size = 0;
+    }
+
+    /**
+     * Double the capacity of the set.
+     */
+    private void grow() {
+        long[] newElements = new long[elements.length * 2];
+        System.arraycopy(elements, 0, newElements, 0, size);
+        elements = newElements;
+
+        table = new int[tableSize(elements.length)];
+        int mask = table.length - 1;
+
+        for (int i = 0; i < size; ++i) {
+            int slot = BlockPosition.hash(elements[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Get the table size for a number of elements, keeping the table at
+     * most half full.
+     *
+     * @param capacity
+     * @return
+     */
+    static int tableSize(int capacity) {
+        int size = INITIAL_CAPACITY;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
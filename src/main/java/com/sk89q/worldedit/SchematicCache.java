@@ -0,0 +1,235 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * Keeps recently loaded schematics in memory so that loading them again
+ * doesn't need to decompress and parse the file. Schematics are keyed by
+ * their canonical path and are loaded again when the file's modification
+ * time or size changes. Every load gets its own clipboard that shares the
+ * cached blocks until it is changed, so rotating or flipping one doesn't
+ * affect anyone else. The least recently used schematics are dropped
+ * when the cache takes up more memory than allowed.
+ *
+ * @author sk89q
+ */
+public class SchematicCache {
+    /**
+     * WorldEdit instance, for the configuration.
+     */
+    private WorldEdit worldEdit;
+    /**
+     * Cached schematics keyed by canonical path, in order of last use.
+     */
+    private LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /**
+     * Estimated number of bytes used by the cached schematics.
+     */
+    private long byteSize = 0;
+    /**
+     * Number of loads answered from the cache.
+     */
+    private long hits = 0;
+    /**
+     * Number of loads that read the file.
+     */
+    private long misses = 0;
+
+    /**
+     * Construct the cache.
+     *
+     * @param worldEdit
+     */
+    public SchematicCache(WorldEdit worldEdit) {
+        this.worldEdit = worldEdit;
+    }
+
+    /**
+     * Load a .schematic file into a clipboard, using the cached copy if the
+     * file hasn't changed since it was cached.
+     *
+     * @param path
+     * @return clipboard
+     * @throws DataException
+     * @throws IOException
+     */
+    public CuboidClipboard load(File path) throws DataException, IOException {
+        String key = path.getCanonicalPath();
+        long modified = path.lastModified();
+        long length = path.length();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null) {
+                if (entry.modified == modified && entry.length == length) {
+                    ++hits;
+                    return entry.clipboard.duplicate();
+                }
+
+                remove(key);
+            }
+
+            ++misses;
+        }
+
+        CuboidClipboard clipboard = CuboidClipboard.loadSchematic(path);
+        long budget = getBudget();
+
+        if (budget >= 0 && clipboard.getByteSize() <= budget) {
+            synchronized (this) {
+                remove(key);
+                Entry entry = new Entry(clipboard.duplicate(), modified, length);
+                entries.put(key, entry);
+                byteSize += entry.byteSize;
+                enforceBudget(budget);
+            }
+        }
+
+        return clipboard;
+    }
+
+    /**
+     * Forget a schematic, such as after it has been saved over.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public synchronized void invalidate(File path) throws IOException {
+        remove(path.getCanonicalPath());
+    }
+
+    /**
+     * Forget every schematic.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        byteSize = 0;
+    }
+
+    /**
+     * Get the number of cached schematics.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated number of bytes used by the cached schematics.
+     *
+     * @return
+     */
+    public synchronized long getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * Get the number of loads answered from the cache.
+     *
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of loads that read the file.
+     *
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the fraction of loads answered from the cache.
+     *
+     * @return hit rate between 0 and 1
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    /**
+     * Get the maximum number of bytes the cache may use.
+     *
+     * @return -1 if caching is disabled
+     */
+    private long getBudget() {
+        int limit = worldEdit.getConfiguration().schematicCacheSize;
+        return limit > 0 ? limit * 1024L * 1024L : -1;
+    }
+
+    /**
+     * Remove a schematic from the cache.
+     *
+     * @param key
+     */
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+
+        if (entry != null) {
+            byteSize -= entry.byteSize;
+        }
+    }
+
+    /**
+     * Drop the least recently used schematics until the cache fits in the
+     * budget.
+     *
+     * @param budget
+     */
+    private void enforceBudget(long budget) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+        while (byteSize > budget && it.hasNext()) {
+            byteSize -= it.next().getValue().byteSize;
+            it.remove();
+        }
+    }
+
+    /**
+     * A cached schematic.
+     */
+    private static class Entry {
+        private final CuboidClipboard clipboard;
+        private final long modified;
+        private final long length;
+        private final long byteSize;
+
+        private Entry(CuboidClipboard clipboard, long modified, long length) {
+            this.clipboard = clipboard;
+            this.modified = modified;
+            this.length = length;
+            this.byteSize = clipboard.getByteSize();
+        }
+    }
+}
@@ -54,4 +54,24 @@ public abstract class ServerInterface {
      * Reload WorldEdit configuration.
      */
     public abstract void reload();
+    
+    /**
+     * Schedule a task to be run repeatedly on the main server thread.
+     * 
+     * @param delay delay before the first run, in ticks
+     * @param period period between runs, in ticks
+     * @param task
+     * @return task ID, or -1 if scheduling is not supported
+     */
+    public int schedule(long delay, long period, Runnable task) {
+        return -1;
+    }
+    
+    /**
+     * Cancel a task previously scheduled with <code>schedule()</code>.
+     * 
+     * @param id
+     */
+    public void cancelTask(int id) {
+    }
 }
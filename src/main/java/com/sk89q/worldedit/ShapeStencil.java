@@ -0,0 +1,446 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The positions of the blocks of a shape, relative to its center. Each
+ * offset is packed into an int and the offsets are sorted by column.
+ * Which chunks the columns fall in depends on where the shape is placed,
+ * so <code>getChunkOrder()</code> sorts them by chunk for a given center.
+ * Stencils are built once and then reused by every edit that needs the
+ * same shape, such as brushes painting with the same size over and over.
+ *
+ * @author sk89q
+ */
+public class ShapeStencil {
+    /**
+     * Largest radius that can be stored, so that offsets fit in an int.
+     */
+    public static final int MAX_RADIUS = 127;
+    /**
+     * Largest number of blocks in a stencil. Larger shapes are not
+     * worth keeping in memory.
+     */
+    public static final int MAX_SIZE = 1 << 18;
+    /**
+     * Number of offsets that the cache may hold in total.
+     */
+    private static final int MAX_CACHED_SIZE = 1 << 20;
+
+    private static final int SPHERE = 0;
+    private static final int HOLLOW_SPHERE = 1;
+    private static final int CYLINDER = 2;
+    private static final int HOLLOW_CYLINDER = 3;
+
+    /**
+     * Cached stencils, in order of last use.
+     */
+    private static final LinkedHashMap<Long, ShapeStencil> cache =
+            new LinkedHashMap<Long, ShapeStencil>(16, 0.75f, true);
+    /**
+     * Number of offsets in the cache.
+     */
+    private static int cachedSize = 0;
+
+    /**
+     * Offsets, with X in the upper 12 bits, Z in the next 12 bits and Y
+     * in the lower 8 bits, all signed.
+     */
+    private int[] offsets;
+    /**
+     * Largest distance of a block from the center on the X and Z axes.
+     */
+    private int radius;
+
+    /**
+     * Construct the stencil.
+     *
+     * @param offsets
+     * @param radius
+     */
+    private ShapeStencil(int[] offsets, int radius) {
+        this.offsets = offsets;
+        this.radius = radius;
+    }
+
+    /**
+     * Get the number of blocks in the stencil.
+     *
+     * @return
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Get the X offset of a block.
+     *
+     * @param i
+     * @return
+     */
+    public int getX(int i) {
+        return offsets[i] >> 20;
+    }
+
+    /**
+     * Get the Y offset of a block.
+     *
+     * @param i
+     * @return
+     */
+    public int getY(int i) {
+        return (byte) offsets[i];
+    }
+
+    /**
+     * Get the Z offset of a block.
+     *
+     * @param i
+     * @return
+     */
+    public int getZ(int i) {
+        return (offsets[i] << 12) >> 20;
+    }
+
+    /**
+     * Get the order in which to place the blocks so that they are placed
+     * one chunk at a time, keeping the order of the columns within each
+     * chunk.
+     *
+     * @param centerX X coordinate of the center in the world
+     * @param centerZ Z coordinate of the center in the world
+     * @return indices of the blocks, in order
+     */
+    public int[] getChunkOrder(int centerX, int centerZ) {
+        int minChunkX = (centerX - radius) >> 4;
+        int minChunkZ = (centerZ - radius) >> 4;
+        int chunksX = ((centerX + radius) >> 4) - minChunkX + 1;
+        int chunksZ = ((centerZ + radius) >> 4) - minChunkZ + 1;
+        int[] chunks = new int[offsets.length];
+        int[] starts = new int[chunksX * chunksZ + 1];
+
+        // Count the blocks in each chunk
+        for (int i = 0; i < offsets.length; ++i) {
+            int chunk = (((centerX + getX(i)) >> 4) - minChunkX) * chunksZ
+                    + ((centerZ + getZ(i)) >> 4) - minChunkZ;
+            chunks[i] = chunk;
+            ++starts[chunk + 1];
+        }
+
+        for (int i = 1; i < starts.length; ++i) {
+            starts[i] += starts[i - 1];
+        }
+
+        int[] order = new int[offsets.length];
+
+        for (int i = 0; i < offsets.length; ++i) {
+            order[starts[chunks[i]]++] = i;
+        }
+
+        return order;
+    }
+
+    /**
+     * Get the stencil of a sphere. The sphere contains the blocks within
+     * radius + 0.5 of its center, and a hollow sphere leaves out the
+     * blocks closer than radius - 0.5.
+     *
+     * @param radius
+     * @param filled
+     * @return stencil, or null if the sphere is too large
+     */
+    public static synchronized ShapeStencil getSphere(int radius,
+            boolean filled) {
+        if (radius < 0 || radius > MAX_RADIUS) {
+            return null;
+        }
+
+        long key = getKey(filled ? SPHERE : HOLLOW_SPHERE, radius, 0);
+        ShapeStencil stencil = cache.get(key);
+
+        if (stencil == null) {
+            stencil = buildSphere(radius, filled);
+            cache(key, stencil);
+        }
+
+        return stencil;
+    }
+
+    /**
+     * Get the stencil of a cylinder standing on its center. The blocks
+     * of each layer are the ones drawn by the midpoint circle algorithm.
+     *
+     * @param radius
+     * @param height
+     * @param filled
+     * @return stencil, or null if the cylinder is too large
+     */
+    public static synchronized ShapeStencil getCylinder(int radius,
+            int height, boolean filled) {
+        if (radius < 0 || radius > MAX_RADIUS
+                || height < 0 || height > MAX_RADIUS + 1) {
+            return null;
+        }
+
+        long key = getKey(filled ? CYLINDER : HOLLOW_CYLINDER, radius, height);
+        ShapeStencil stencil = cache.get(key);
+
+        if (stencil == null) {
+            stencil = buildCylinder(radius, height, filled);
+            cache(key, stencil);
+        }
+
+        return stencil;
+    }
+
+    /**
+     * Forget all cached stencils.
+     */
+    public static synchronized void clearCache() {
+        cache.clear();
+        cachedSize = 0;
+    }
+
+    /**
+     * Get the cache key of a shape.
+     *
+     * @param shape
+     * @param radius
+     * @param height
+     * @return
+     */
+    private static long getKey(int shape, int radius, int height) {
+        return ((long) shape << 32) | (height << 16) | radius;
+    }
+
+    /**
+     * Add a stencil to the cache, removing the least recently used
+     * stencils if the cache is full.
+     *
+     * @param key
+     * @param stencil null if the shape was too large
+     */
+    private static void cache(long key, ShapeStencil stencil) {
+        if (stencil == null) {
+            return;
+        }
+
+        cache.put(key, stencil);
+        cachedSize += stencil.size();
+
+        Iterator<Map.Entry<Long, ShapeStencil>> it =
+                cache.entrySet().iterator();
+
+        while (cachedSize > MAX_CACHED_SIZE && it.hasNext()) {
+            ShapeStencil old = it.next().getValue();
+
+            if (old != stencil) {
+                cachedSize -= old.size();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Build the stencil of a sphere.
+     *
+     * @param radius
+     * @param filled
+     * @return stencil, or null if it has too many blocks
+     */
+    private static ShapeStencil buildSphere(int radius, boolean filled) {
+        double outer = (radius + 0.5) * (radius + 0.5);
+        double inner = radius >= 1 ? (radius - 0.5) * (radius - 0.5) : 0;
+        Builder builder = new Builder();
+
+        for (int x = -radius; x <= radius; ++x) {
+            for (int z = -radius; z <= radius; ++z) {
+                for (int y = -radius; y <= radius; ++y) {
+                    int d = x * x + y * y + z * z;
+
+                    if (d <= outer && (filled || d >= inner)) {
+                        if (!builder.add(x, y, z)) {
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+
+        return builder.build(radius);
+    }
+
+    /**
+     * Build the stencil of a cylinder.
+     *
+     * @param radius
+     * @param height
+     * @param filled
+     * @return stencil, or null if it has too many blocks
+     */
+    private static ShapeStencil buildCylinder(int radius, int height,
+            boolean filled) {
+        int diameter = radius * 2 + 1;
+        boolean[] layer = new boolean[diameter * diameter];
+        int x = 0;
+        int z = radius;
+        int d = (5 - radius * 4) / 4;
+
+        markCirclePoints(layer, radius, x, z, filled);
+
+        while (x < z) {
+            ++x;
+
+            if (d >= 0) {
+                d += 2 * (x - --z) + 1;
+            } else {
+                d += 2 * x + 1;
+            }
+
+            markCirclePoints(layer, radius, x, z, filled);
+        }
+
+        Builder builder = new Builder();
+
+        for (int bx = -radius; bx <= radius; ++bx) {
+            for (int bz = -radius; bz <= radius; ++bz) {
+                if (!layer[(bx + radius) * diameter + bz + radius]) {
+                    continue;
+                }
+
+                for (int y = 0; y < height; ++y) {
+                    if (!builder.add(bx, y, bz)) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        return builder.build(radius);
+    }
+
+    /**
+     * Mark the points of a circle for one step of the midpoint circle
+     * algorithm, the same way that <code>EditSession</code> draws them.
+     *
+     * @param layer
+     * @param radius
+     * @param x
+     * @param z
+     * @param filled
+     */
+    private static void markCirclePoints(boolean[] layer, int radius,
+            int x, int z, boolean filled) {
+        if (filled) {
+            if (x == z) {
+                for (int z2 = -z; z2 <= z; ++z2) {
+                    mark(layer, radius, x, z2);
+                    mark(layer, radius, -x, z2);
+                }
+            } else if (x < z) {
+                for (int x2 = -x; x2 <= x; ++x2) {
+                    for (int z2 = -z; z2 <= z; ++z2) {
+                        mark(layer, radius, x2, z2);
+                    }
+                    mark(layer, radius, z, x2);
+                    mark(layer, radius, -z, x2);
+                }
+            }
+        } else if (x == 0) {
+            mark(layer, radius, 0, z);
+            mark(layer, radius, 0, -z);
+            mark(layer, radius, z, 0);
+            mark(layer, radius, -z, 0);
+        } else if (x == z) {
+            mark(layer, radius, x, z);
+            mark(layer, radius, -x, z);
+            mark(layer, radius, x, -z);
+            mark(layer, radius, -x, -z);
+        } else if (x < z) {
+            mark(layer, radius, x, z);
+            mark(layer, radius, -x, z);
+            mark(layer, radius, x, -z);
+            mark(layer, radius, -x, -z);
+            mark(layer, radius, z, x);
+            mark(layer, radius, -z, x);
+            mark(layer, radius, z, -x);
+            mark(layer, radius, -z, -x);
+        }
+    }
+
+    /**
+     * Mark a point of a layer.
+     *
+     * @param layer
+     * @param radius
+     * @param x
+     * @param z
+     */
+    private static void mark(boolean[] layer, int radius, int x, int z) {
+        layer[(x + radius) * (radius * 2 + 1) + z + radius] = true;
+    }
+
+    /**
+     * Collects the offsets of a stencil.
+     */
+    private static class Builder {
+        private int[] offsets = new int[64];
+        private int size = 0;
+
+        /**
+         * Add an offset.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return false if the stencil has become too large
+         */
+        private boolean add(int x, int y, int z) {
+            if (size == MAX_SIZE) {
+                return false;
+            }
+
+            if (size == offsets.length) {
+                int[] newOffsets = new int[offsets.length * 2];
+                System.arraycopy(offsets, 0, newOffsets, 0, size);
+                offsets = newOffsets;
+            }
+
+            offsets[size++] = (x << 20) | ((z & 0xFFF) << 8) | (y & 0xFF);
+            return true;
+        }
+
+        /**
+         * Get the stencil.
+         *
+         * @param radius
+         * @return
+         */
+        private ShapeStencil build(int radius) {
+            int[] result = new int[size];
+            System.arraycopy(offsets, 0, result, 0, size);
+            return new ShapeStencil(result, radius);
+        }
+    }
+}
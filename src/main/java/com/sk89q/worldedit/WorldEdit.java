@@ -20,6 +20,9 @@
 package com.sk89q.worldedit;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 import java.io.*;
 import javax.script.ScriptException;
@@ -83,6 +86,28 @@ public class WorldEdit {
     private HashMap<String,LocalSession> sessions =
             new HashMap<String,LocalSession>();
     
+    /**
+     * Edit sessions that are still being applied over several ticks.
+     */
+    private List<FlushQueueTask> flushTasks =
+            new ArrayList<FlushQueueTask>();
+    
+    /**
+     * Keeps the history of all sessions within the memory budget.
+     */
+    private HistoryStore historyStore = new HistoryStore(this);
+    
+    /**
+     * Keeps recently loaded schematics in memory.
+     */
+    private SchematicCache schematicCache = new SchematicCache(this);
+    
+    /**
+     * Threads that count blocks for the analysis commands and load chunks
+     * for snapshot restores. Created the first time it is needed.
+     */
+    private ExecutorService analysisExecutor;
+    
     /**
      * Initialize statically.
      */
@@ -137,6 +162,7 @@ public class WorldEdit {
             }
             
             session = new LocalSession(config);
+            session.setHistoryStore(historyStore);
             
             // Set the limit on the number of blocks that an operation can
             // change at once, or don't if the player has an override or there
@@ -600,12 +626,7 @@ public class WorldEdit {
      * @return
      */
     public File getWorkingDirectoryFile(String path) {
-        File f = new File(path);
-        if (f.isAbsolute()) {
-            return f;
-        } else {
-            return new File(config.getWorkingDirectory(), path);
-        }
+        return config.getWorkingDirectoryFile(path);
     }
 
     /**
@@ -769,7 +790,10 @@ public class WorldEdit {
      */
     public void removeSession(LocalPlayer player) {
         synchronized (sessions) {
-            sessions.remove(player.getName());
+            LocalSession session = sessions.remove(player.getName());
+            if (session != null) {
+                session.clearHistory();
+            }
         }
     }
 
@@ -778,6 +802,9 @@ public class WorldEdit {
      */
     public void clearSessions() {
         synchronized (sessions) {
+            for (LocalSession session : sessions.values()) {
+                session.clearHistory();
+            }
             sessions.clear();
         }
     }
@@ -872,6 +899,7 @@ public class WorldEdit {
                 Map.Entry<String, LocalSession> entry = it.next();
                 if (entry.getValue().hasExpired()
                         && !checker.isOnlinePlayer(entry.getKey())) {
+                    entry.getValue().clearHistory();
                     it.remove();
                 }
             }
@@ -1072,23 +1100,14 @@ public class WorldEdit {
             } catch (UnhandledCommandException e) {
                 return false;
             } finally {
-                session.remember(editSession);
-                editSession.flushQueue();
+                if (!scheduleFlush(player, session, editSession, start)) {
+                    session.remember(editSession);
+                    editSession.flushQueue();
 
-                if (config.profile) {
-                    long time = System.currentTimeMillis() - start;
-                    int changed = editSession.getBlockChangeCount();
-                    if (time > 0) {
-                        double throughput = changed / (time / 1000.0);
-                        player.printDebug((time / 1000.0) + "s elapsed (history: "
-                                + changed + " changed; "
-                                + Math.round(throughput) + " blocks/sec).");
-                    } else {
-                        player.printDebug((time / 1000.0) + "s elapsed.");
-                    }
+                    printProfile(player, editSession,
+                            System.currentTimeMillis() - start);
+                    flushBlockBag(player, editSession);
                 }
-                
-                flushBlockBag(player, editSession);
             }
         } catch (NumberFormatException e) {
             player.printError("Number expected; string given.");
@@ -1133,6 +1152,101 @@ public class WorldEdit {
         return true;
     }
     
+    /**
+     * Hand a large edit session's queue to a task that applies it over
+     * several server ticks. Small queues, or all queues if the block rate
+     * isn't configured, are not scheduled.
+     * 
+     * @param player
+     * @param session
+     * @param editSession
+     * @param start
+     * @return whether the queue will be applied by a task
+     */
+    private boolean scheduleFlush(LocalPlayer player, LocalSession session,
+            EditSession editSession, long start) {
+        if (config.flushBlocksPerTick <= 0
+                || editSession.getQueueSize() <= config.flushBlocksPerTick) {
+            return false;
+        }
+        
+        FlushQueueTask task =
+                new FlushQueueTask(this, player, session, editSession, start);
+        
+        synchronized (flushTasks) {
+            if (!task.schedule()) {
+                return false;
+            }
+            
+            flushTasks.add(task);
+        }
+
+        session.setFlushTask(task);
+        
+        player.print("Placing " + editSession.getQueueSize()
+                + " blocks over time...");
+        
+        return true;
+    }
+    
+    /**
+     * Called by a flush task once it has finished.
+     * 
+     * @param task
+     */
+    void removeFlushTask(FlushQueueTask task) {
+        synchronized (flushTasks) {
+            flushTasks.remove(task);
+        }
+    }
+    
+    /**
+     * Immediately finish all edits that are being applied over time.
+     */
+    public void completeFlushTasks() {
+        List<FlushQueueTask> tasks;
+        
+        synchronized (flushTasks) {
+            tasks = new ArrayList<FlushQueueTask>(flushTasks);
+        }
+        
+        for (FlushQueueTask task : tasks) {
+            task.complete();
+        }
+    }
+    
+    /**
+     * Print timing information for an operation if profiling is enabled.
+     * 
+     * @param player
+     * @param editSession
+     * @param time in milliseconds
+     */
+    void printProfile(LocalPlayer player, EditSession editSession, long time) {
+        if (!config.profile) {
+            return;
+        }
+        
+        int changed = editSession.getBlockChangeCount();
+        if (time > 0) {
+            double throughput = changed / (time / 1000.0);
+            player.printDebug((time / 1000.0) + "s elapsed (history: "
+                    + changed + " changed; "
+                    + Math.round(throughput) + " blocks/sec).");
+        } else {
+            player.printDebug((time / 1000.0) + "s elapsed.");
+        }
+
+        BlockCache cache = editSession.getBlockCache();
+        if (cache != null) {
+            long hits = cache.getHits();
+            long total = hits + cache.getMisses();
+            player.printDebug("Block cache: " + hits + " hits, "
+                    + cache.getMisses() + " misses ("
+                    + (total > 0 ? hits * 100 / total : 0) + "% hit rate).");
+        }
+    }
+    
     /**
      * Executes a WorldEdit script.
      * 
@@ -1231,6 +1345,70 @@ public class WorldEdit {
         return config;
     }
     
+    /**
+     * Get the store that keeps track of the history of all sessions.
+     * 
+     * @return
+     */
+    public HistoryStore getHistoryStore() {
+        return historyStore;
+    }
+    
+    /**
+     * Get the cache of recently loaded schematics.
+     * 
+     * @return
+     */
+    public SchematicCache getSchematicCache() {
+        return schematicCache;
+    }
+    
+    /**
+     * Get the number of threads used to count blocks for the analysis
+     * commands and to load chunks for snapshot restores.
+     * 
+     * @return
+     */
+    public int getAnalysisThreads() {
+        if (config.analysisThreads > 0) {
+            return config.analysisThreads;
+        }
+        
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Get the executor that counts blocks for the analysis commands and
+     * loads chunks for snapshot restores.
+     * 
+     * @return
+     */
+    public synchronized ExecutorService getAnalysisExecutor() {
+        if (analysisExecutor == null) {
+            analysisExecutor = Executors.newFixedThreadPool(
+                    getAnalysisThreads(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "WorldEdit Analysis");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        
+        return analysisExecutor;
+    }
+    
+    /**
+     * Stop the threads used by the analysis commands. Counts that are
+     * still running are abandoned.
+     */
+    public synchronized void shutdownAnalysis() {
+        if (analysisExecutor != null) {
+            analysisExecutor.shutdownNow();
+            analysisExecutor = null;
+        }
+    }
+    
     /**
      * Get the server interface.
      * 
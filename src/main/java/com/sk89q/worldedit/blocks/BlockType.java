@@ -508,6 +508,51 @@ public enum BlockType {
                 || id == 54; // Chest
     }
 
+    /**
+     * Returns true if the block is solid terrain that can occur naturally.
+     *
+     * @param id
+     * @return
+     */
+    public static boolean isNaturalTerrainBlock(int id) {
+        return id == 1 // stone
+                || id == 2 // grass
+                || id == 3 // dirt
+                || id == 7 // bedrock
+                || id == 12 // sand
+                || id == 13 // gravel
+                || id == 82 // clay
+                // hell
+                || id == 87 // netherstone
+                || id == 88 // slowsand
+                || id == 89 // lightstone
+                // ores
+                || id == 14 // coal ore
+                || id == 15 // iron ore
+                || id == 16 // gold ore
+                || id == 56 // diamond ore
+                || id == 73 // redstone ore
+                || id == 74; // redstone ore (active)
+    }
+
+    /**
+     * Returns true if the block has extra data that is kept in a tile
+     * entity, such as the contents of a chest or the text of a sign.
+     *
+     * @param id
+     * @return
+     */
+    public static boolean hasTileEntity(int id) {
+        return id == 23 // Dispenser
+                || id == 25 // Note block
+                || id == 52 // Mob spawner
+                || id == 54 // Chest
+                || id == 61 // Furnace
+                || id == 62 // Furnace
+                || id == 63 // Sign post
+                || id == 68; // Wall sign
+    }
+
     /**
      * Returns true if a block uses redstone in some way.
      *
@@ -75,6 +75,13 @@ public class BukkitConfiguration extends LocalConfiguration {
         scriptsDir = config.getString("scripting.dir", scriptsDir);
 
         saveDir = config.getString("saving.dir", saveDir);
+        schematicCacheSize = config.getInt("saving.cache-size", schematicCacheSize);
+        
+        bufferedEdits = config.getBoolean("editing.buffered", bufferedEdits);
+        blockCache = config.getBoolean("editing.block-cache", blockCache);
+        flushBlocksPerTick = config.getInt("editing.blocks-per-tick", flushBlocksPerTick);
+        flushMaxTickTime = config.getInt("editing.max-tick-time", flushMaxTickTime);
+        analysisThreads = config.getInt("analysis.threads", analysisThreads);
         
         disallowedBlocks = new HashSet<Integer>(config.getIntList("limits.disallowed-blocks", null));
 
@@ -84,10 +91,16 @@ public class BukkitConfiguration extends LocalConfiguration {
         
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         LocalSession.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        historyMemoryLimit = config.getInt("history.memory-limit", historyMemoryLimit);
+        historyDir = config.getString("history.dir", historyDir);
         
         String snapshotsDir = config.getString("snapshots.directory", "");
+        String snapshotsIndex = config.getString("snapshots.index-file", "");
         if (!snapshotsDir.trim().equals("")) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
+            if (!snapshotsIndex.trim().equals("")) {
+                snapshotRepo.setIndexFile(getWorkingDirectoryFile(snapshotsIndex));
+            }
         } else {
             snapshotRepo = null;
         }
@@ -53,4 +53,14 @@ public class BukkitServerInterface extends ServerInterface {
         plugin.loadConfiguration();
     }
 
+    @Override
+    public int schedule(long delay, long period, Runnable task) {
+        return server.getScheduler().scheduleSyncRepeatingTask(plugin, task, delay, period);
+    }
+
+    @Override
+    public void cancelTask(int id) {
+        server.getScheduler().cancelTask(id);
+    }
+
 }
@@ -38,10 +38,13 @@ import org.bukkit.entity.TNTPrimed;
 import org.bukkit.entity.Wolf;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.TreeType;
 import org.bukkit.World;
+import com.sk89q.worldedit.ChunkBatch;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector;
@@ -162,6 +165,119 @@ public class BukkitWorld extends LocalWorld {
         return world.getBlockAt(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()).getData();
     }
 
+    /**
+     * Get block type.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    @Override
+    public int getBlockType(int x, int y, int z) {
+        return world.getBlockTypeIdAt(x, y, z);
+    }
+
+    /**
+     * Get block data.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    @Override
+    public int getBlockData(int x, int y, int z) {
+        return world.getBlockAt(x, y, z).getData();
+    }
+
+    /**
+     * Get the types and data of all the blocks in a cuboid, reading each
+     * chunk in one go.
+     * 
+     * @param min
+     * @param max
+     * @param types
+     * @param data
+     */
+    @Override
+    public void getBlocks(Vector min, Vector max, byte[] types, byte[] data) {
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+        int width = maxX - minX + 1;
+        int length = maxZ - minZ + 1;
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                ChunkSnapshot chunk = world.getChunkAt(cx, cz).getChunkSnapshot();
+                int startX = Math.max(minX, cx << 4);
+                int endX = Math.min(maxX, (cx << 4) + 15);
+                int startZ = Math.max(minZ, cz << 4);
+                int endZ = Math.min(maxZ, (cz << 4) + 15);
+
+                for (int y = minY; y <= maxY; ++y) {
+                    boolean inWorld = y >= 0 && y <= 127;
+
+                    for (int z = startZ; z <= endZ; ++z) {
+                        int index = ((y - minY) * length + (z - minZ)) * width
+                                + (startX - minX);
+
+                        for (int x = startX; x <= endX; ++x, ++index) {
+                            if (inWorld) {
+                                types[index] = (byte) chunk.getBlockTypeId(x & 15, y, z & 15);
+                                if (data != null) {
+                                    data[index] = (byte) chunk.getBlockData(x & 15, y, z & 15);
+                                }
+                            } else {
+                                types[index] = 0;
+                                if (data != null) {
+                                    data[index] = 0;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of changes inside one chunk.
+     * 
+     * @param batch
+     * @param fast
+     */
+    @Override
+    public void setBlocks(ChunkBatch batch, boolean fast) {
+        Chunk chunk = world.getChunkAt(batch.getChunkX(), batch.getChunkZ());
+
+        for (int i = 0; i < batch.size(); ++i) {
+            Block block = chunk.getBlock(batch.getX(i), batch.getY(i), batch.getZ(i));
+            int data = batch.getData(i);
+
+            if (data < 0) {
+                block.setTypeId(batch.getType(i), !fast);
+            } else {
+                block.setTypeIdAndData(batch.getType(i), (byte) data, !fast);
+            }
+        }
+    }
+
+    /**
+     * Send a chunk to the clients again.
+     * 
+     * @param chunkX
+     * @param chunkZ
+     */
+    @Override
+    public void refreshChunk(int chunkX, int chunkZ) {
+        world.refreshChunk(chunkX, chunkZ);
+    }
+
     /**
      * Get block light level.
      * 
@@ -116,6 +116,8 @@ public class WorldEditPlugin extends JavaPlugin {
                 lPlayer.dispatchCUIHandshake();
             }
         }
+        controller.completeFlushTasks();
+        controller.shutdownAnalysis();
         controller.clearSessions();
         config.unload();
     }
@@ -255,6 +257,7 @@ public class WorldEditPlugin extends JavaPlugin {
     public EditSession createEditSession(Player player) {
         LocalPlayer wePlayer = wrapPlayer(player);
         LocalSession session = controller.getSession(wePlayer);
+        session.completeFlushTask();
         BlockBag blockBag = session.getBlockBag(wePlayer);
         
         EditSession editSession =
@@ -192,7 +192,7 @@ public class ClipboardCommands {
             if (!filePath.substring(0, dirPath.length()).equals(dirPath)) {
                 player.printError("Schematic could not read or it does not exist.");
             } else {
-                session.setClipboard(CuboidClipboard.loadSchematic(f));
+                session.setClipboard(we.getSchematicCache().load(f));
                 WorldEdit.logger.info(player.getName() + " loaded " + filePath);
                 player.print(filename + " loaded. Paste it with //paste");
             }
@@ -238,6 +238,7 @@ public class ClipboardCommands {
             }
 
             session.getClipboard().saveSchematic(f);
+            we.getSchematicCache().invalidate(f);
             WorldEdit.logger.info(player.getName() + " saved " + f.getCanonicalPath());
             player.print(filename + " saved.");
         } catch (DataException se) {
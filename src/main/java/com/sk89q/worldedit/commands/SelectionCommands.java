@@ -477,10 +477,23 @@ public class SelectionCommands {
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
         
-        Set<Integer> searchIDs = we.getBlockIDs(player,
+        final Set<Integer> searchIDs = we.getBlockIDs(player,
                 args.getString(0), true);
-        player.print("Counted: " +
-                editSession.countBlocks(session.getSelection(player.getWorld()), searchIDs));
+        final LocalPlayer countPlayer = player;
+        Region region = session.getSelection(player.getWorld());
+
+        new BlockCountTask(we, player, player.getWorld(), region) {
+            @Override
+            protected void finish(int[] counts) {
+                int count = 0;
+                for (int id : searchIDs) {
+                    if (id >= 0 && id < counts.length) {
+                        count += counts[id];
+                    }
+                }
+                countPlayer.print("Counted: " + count);
+            }
+        }.start();
     }
 
     @Command(
@@ -496,17 +509,35 @@ public class SelectionCommands {
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
         
-        List<Countable<Integer>> distribution =
-            editSession.getBlockDistribution(session.getSelection(player.getWorld()));
-        
+        final LocalPlayer countPlayer = player;
+        final boolean log = args.hasFlag('c');
+        Region region = session.getSelection(player.getWorld());
+        final int size = region.getArea();
+
+        new BlockCountTask(we, player, player.getWorld(), region) {
+            @Override
+            protected void finish(int[] counts) {
+                printDistribution(countPlayer, toDistribution(counts), size, log);
+            }
+        }.start();
+    }
+
+    /**
+     * Print a block distribution.
+     * 
+     * @param player
+     * @param distribution
+     * @param size
+     * @param log whether to also write the distribution to the server log
+     */
+    private static void printDistribution(LocalPlayer player,
+            List<Countable<Integer>> distribution, int size, boolean log) {
         Logger logger = Logger.getLogger("Minecraft.WorldEdit");
         
         if (distribution.size() > 0) { // *Should* always be true
-            int size = session.getSelection(player.getWorld()).getArea();
-    
             player.print("# total blocks: " + size);
             
-            if (args.hasFlag('c')) {
+            if (log) {
                 logger.info("Block distribution (req. by " + player.getName() + "):");
                 logger.info("# total blocks: " + size);
             }
@@ -518,7 +549,7 @@ public class SelectionCommands {
                         BlockType.fromID(c.getID()).getName(), c.getID());
                 player.print(str);
                 
-                if (args.hasFlag('c')) {
+                if (log) {
                     logger.info(str);
                 }
             }
@@ -127,7 +127,8 @@ public class SnapshotUtilCommands {
             SnapshotRestore restore = new SnapshotRestore(chunkStore, region);
             //player.print(restore.getChunksAffected() + " chunk(s) will be loaded.");
 
-            restore.restore(editSession);
+            restore.restore(editSession, we.getAnalysisExecutor(),
+                    we.getAnalysisThreads() * 2);
 
             if (restore.hadTotalFailure()) {
                 String error = restore.getLastErrorMessage();
@@ -29,6 +29,7 @@ import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalPlayer;
 import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.SchematicCache;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.WorldEditException;
 
@@ -66,6 +67,25 @@ public class WorldEditCommands {
         player.print("Configuration reloaded!");
     }
 
+    @Command(
+        aliases = {"cache"},
+        usage = "",
+        desc = "Show schematic cache statistics",
+        min = 0,
+        max = 0
+    )
+    @CommandPermissions({"worldedit.cache"})
+    public static void cache(CommandContext args, WorldEdit we,
+            LocalSession session, LocalPlayer player, EditSession editSession)
+            throws WorldEditException {
+
+        SchematicCache cache = we.getSchematicCache();
+        player.print("Schematic cache: " + cache.size() + " schematic(s), "
+                + (cache.getByteSize() / 1024) + " KB");
+        player.print(String.format("Hit rate: %.1f%% (%d hits, %d misses)",
+                cache.getHitRate() * 100, cache.getHits(), cache.getMisses()));
+    }
+
     @Command(
         aliases = {"cui"},
         usage = "",
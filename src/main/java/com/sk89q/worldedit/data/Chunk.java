@@ -20,6 +20,12 @@
 
 package com.sk89q.worldedit.data;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -34,6 +40,7 @@ import com.sk89q.worldedit.blocks.*;
  */
 public class Chunk {
     private CompoundTag rootTag;
+    private byte[] tileEntityData;
     private byte[] blocks;
     private byte[] data;
     private int rootX;
@@ -58,6 +65,104 @@ public class Chunk {
         rootZ = ((IntTag)getChildTag(
                 rootTag.getValue(), "zPos", IntTag.class)).getValue();
 
+        checkArrays();
+    }
+
+    /**
+     * Construct the chunk by decoding it from a stream. Only the blocks,
+     * block data and position are decoded. The bytes of the tile entities
+     * are kept undecoded until a block that needs them is read, and
+     * everything else is skipped.
+     * 
+     * @param stream decompressed chunk data
+     * @throws DataException
+     * @throws IOException
+     */
+    public Chunk(InputStream stream) throws DataException, IOException {
+        RecordingInputStream in = new RecordingInputStream(stream);
+        NBTReader reader = new NBTReader(in);
+        boolean foundX = false;
+        boolean foundZ = false;
+
+        ChunkStore.findLevelTag(reader);
+
+        while (reader.next() == NBTReader.START) {
+            if (reader.isNamed("Blocks")) {
+                checkType(reader, "Blocks", NBTConstants.TYPE_BYTE_ARRAY);
+                blocks = reader.getByteArray();
+            } else if (reader.isNamed("Data")) {
+                checkType(reader, "Data", NBTConstants.TYPE_BYTE_ARRAY);
+                data = reader.getByteArray();
+            } else if (reader.isNamed("xPos")) {
+                checkType(reader, "xPos", NBTConstants.TYPE_INT);
+                rootX = reader.getInt();
+                foundX = true;
+            } else if (reader.isNamed("zPos")) {
+                checkType(reader, "zPos", NBTConstants.TYPE_INT);
+                rootZ = reader.getInt();
+                foundZ = true;
+            } else if (reader.isNamed("TileEntities")) {
+                tileEntityData = copyTag(reader, in, "TileEntities");
+            } else {
+                reader.skip();
+            }
+        }
+
+        if (blocks == null) {
+            throw new InvalidFormatException("Missing a \"Blocks\" tag");
+        }
+        if (data == null) {
+            throw new InvalidFormatException("Missing a \"Data\" tag");
+        }
+        if (!foundX) {
+            throw new InvalidFormatException("Missing a \"xPos\" tag");
+        }
+        if (!foundZ) {
+            throw new InvalidFormatException("Missing a \"zPos\" tag");
+        }
+
+        checkArrays();
+    }
+
+    /**
+     * Copy the bytes of the tag that a reader has just moved to, skipping
+     * past it. The header that the reader has already read is written
+     * again, so the copy can be read as a tag on its own.
+     * 
+     * @param reader
+     * @param in the stream that the reader reads from
+     * @param name name of the tag
+     * @return
+     * @throws IOException
+     */
+    private static byte[] copyTag(NBTReader reader, RecordingInputStream in,
+            String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(out);
+
+        header.writeByte(reader.getType());
+        header.writeUTF(name);
+        if (reader.getType() == NBTConstants.TYPE_LIST) {
+            header.writeByte(reader.getListType());
+            header.writeInt(reader.getListLength());
+        }
+
+        in.startRecording(out);
+        try {
+            reader.skip();
+        } finally {
+            in.stopRecording();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Check the sizes of the block arrays.
+     * 
+     * @throws DataException
+     */
+    private void checkArrays() throws DataException {
         if (blocks.length != 32768) {
             throw new InvalidFormatException("Chunk blocks byte array expected "
                     + "to be 32,768 bytes; found " + blocks.length);
@@ -69,6 +174,22 @@ public class Chunk {
         }
     }
 
+    /**
+     * Check the type of the tag that a reader is at.
+     * 
+     * @param reader
+     * @param key
+     * @param expected
+     * @throws InvalidFormatException
+     */
+    private static void checkType(NBTReader reader, String key, int expected)
+            throws InvalidFormatException {
+        if (reader.getType() != expected) {
+            throw new InvalidFormatException(key + " tag is not of tag type "
+                    + NBTUtils.getTypeClass(expected).getName());
+        }
+    }
+
     /**
      * Get the block ID of a block.
      *
@@ -121,9 +242,17 @@ public class Chunk {
      * @throws DataException
      */
     private void populateTileEntities() throws DataException {
-        List<Tag> tags = (List<Tag>)((ListTag)getChildTag(
-                rootTag.getValue(), "TileEntities", ListTag.class))
-                .getValue();
+        List<Tag> tags;
+
+        if (rootTag != null) {
+            tags = (List<Tag>)((ListTag)getChildTag(
+                    rootTag.getValue(), "TileEntities", ListTag.class))
+                    .getValue();
+        } else if (tileEntityData != null) {
+            tags = readTileEntities();
+        } else {
+            throw new InvalidFormatException("Missing a \"TileEntities\" tag");
+        }
 
         tileEntities = new HashMap<BlockVector,Map<String,Tag>>();
 
@@ -163,6 +292,32 @@ public class Chunk {
         }
     }
 
+    /**
+     * Decode the tile entities that were kept when the chunk was read from
+     * a stream.
+     * 
+     * @return
+     * @throws DataException
+     */
+    private List<Tag> readTileEntities() throws DataException {
+        NBTReader reader = new NBTReader(
+                new ByteArrayInputStream(tileEntityData));
+
+        try {
+            reader.next();
+            if (reader.getType() != NBTConstants.TYPE_LIST) {
+                throw new InvalidFormatException("TileEntities tag is not of "
+                        + "tag type " + ListTag.class.getName());
+            }
+            List<Tag> tags = ((ListTag) reader.readTag()).getValue();
+            tileEntityData = null;
+            return tags;
+        } catch (IOException e) {
+            throw new DataException("Failed to read tile entities: "
+                    + e.getMessage());
+        }
+    }
+
     /**
      * Get the map of tags keyed to strings for a block's tile entity data. May
      * return null if there is no tile entity data. Not public yet because
@@ -215,6 +370,74 @@ public class Chunk {
         return block;
     }
 
+    /**
+     * Copies the bytes read from a stream while recording, so that one tag
+     * can be kept without keeping the rest of the stream.
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+        private ByteArrayOutputStream recording;
+
+        private RecordingInputStream(InputStream stream) {
+            super(stream);
+        }
+
+        /**
+         * Start copying the bytes that are read.
+         * 
+         * @param recording
+         */
+        private void startRecording(ByteArrayOutputStream recording) {
+            this.recording = recording;
+        }
+
+        /**
+         * Stop copying the bytes that are read.
+         */
+        private void stopRecording() {
+            recording = null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1 && recording != null) {
+                recording.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0 && recording != null) {
+                recording.write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (recording == null) {
+                return in.skip(n);
+            }
+
+            // Skipped bytes have to be read to be copied
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            long skipped = 0;
+
+            while (skipped < n) {
+                int read = read(buffer, 0,
+                        (int) Math.min(n - skipped, buffer.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+
+            return skipped;
+        }
+    }
+
     /**
      * Get child tag of a NBT structure.
      *
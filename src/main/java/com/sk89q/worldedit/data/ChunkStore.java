@@ -20,6 +20,8 @@
 package com.sk89q.worldedit.data;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 import com.sk89q.jnbt.*;
 import com.sk89q.worldedit.*;
 
@@ -43,7 +45,8 @@ public abstract class ChunkStore {
     }
 
     /**
-     * Get the tag for a chunk.
+     * Get the tag for a chunk. Entities and lighting are not needed to
+     * restore blocks, so they are left out.
      *
      * @param pos
      * @return tag
@@ -54,7 +57,8 @@ public abstract class ChunkStore {
             throws DataException, IOException;
 
     /**
-     * Get a chunk at a location.
+     * Get a chunk at a location. Chunks may be requested from several
+     * threads at once.
      *
      * @param pos
      * @return
@@ -67,6 +71,70 @@ public abstract class ChunkStore {
         return new Chunk(getChunkTag(pos));
     }
 
+    /**
+     * Read the 'Level' tag of a chunk from a stream, skipping over the
+     * parts of it that are not needed without decoding them.
+     *
+     * @param stream
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    protected static CompoundTag readLevelTag(InputStream stream)
+            throws DataException, IOException {
+        NBTReader reader = new NBTReader(stream);
+        Map<String, Tag> children = new HashMap<String, Tag>();
+
+        findLevelTag(reader);
+
+        while (reader.next() == NBTReader.START) {
+            if (reader.isNamed("Entities")
+                    || reader.isNamed("SkyLight")
+                    || reader.isNamed("BlockLight")
+                    || reader.isNamed("HeightMap")) {
+                reader.skip();
+            } else {
+                Tag tag = reader.readTag();
+                children.put(tag.getName(), tag);
+            }
+        }
+
+        return new CompoundTag("Level", children);
+    }
+
+    /**
+     * Move a reader at the start of a chunk to the start of its 'Level'
+     * tag.
+     *
+     * @param reader
+     * @throws DataException
+     * @throws IOException
+     */
+    static void findLevelTag(NBTReader reader)
+            throws DataException, IOException {
+        reader.next();
+        if (reader.getType() != NBTConstants.TYPE_COMPOUND) {
+            throw new ChunkStoreException("CompoundTag expected for chunk; got "
+                    + NBTUtils.getTypeClass(reader.getType()).getName());
+        }
+
+        while (reader.next() == NBTReader.START) {
+            if (!reader.isNamed("Level")) {
+                reader.skip();
+                continue;
+            }
+
+            if (reader.getType() != NBTConstants.TYPE_COMPOUND) {
+                throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
+                        + NBTUtils.getTypeClass(reader.getType()).getName());
+            }
+
+            return;
+        }
+
+        throw new ChunkStoreException("Missing root 'Level' tag");
+    }
+
     /**
      * Close resources.
      *
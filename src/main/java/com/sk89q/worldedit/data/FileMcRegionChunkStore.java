@@ -54,6 +54,19 @@ public class FileMcRegionChunkStore extends McRegionChunkStore {
         }
     }
 
+    @Override
+    protected McRegionReader openReader(String name) throws DataException,
+            IOException {
+        
+        String file = "region" + File.separator + name;
+        
+        try {
+            return new FileMcRegionReader(new File(path, file));
+        } catch (FileNotFoundException e) {
+            throw new MissingChunkException();
+        }
+    }
+
     @Override
     public boolean isValid() {
         return new File(path, "region").isDirectory();
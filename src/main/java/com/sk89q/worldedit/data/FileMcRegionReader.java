@@ -0,0 +1,139 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader for a MCRegion file on disk. Chunks are read with positional reads
+ * on the file's channel, so they can be read in any order and the reader
+ * can be kept open to read many chunks.
+ *
+ * @author sk89q
+ */
+public class FileMcRegionReader extends McRegionReader {
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    /**
+     * Construct the reader.
+     * 
+     * @param file
+     * @throws DataException
+     * @throws IOException
+     */
+    public FileMcRegionReader(File file) throws DataException, IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+
+        try {
+            readHeader();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (DataException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the header.
+     * 
+     * @throws DataException
+     * @throws IOException
+     */
+    private void readHeader() throws DataException, IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SECTOR_BYTES);
+
+        if (!readFully(buffer, 0)) {
+            throw new DataException("MCRegion file has an incomplete header");
+        }
+
+        buffer.flip();
+        offsets = new int[SECTOR_INTS];
+        buffer.asIntBuffer().get(offsets);
+    }
+
+    @Override
+    protected byte[] readChunkData(int x, int z, int sectorNumber,
+            int numSectors) throws IOException, DataException {
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        ByteBuffer header = ByteBuffer.allocate(4);
+
+        if (!readFully(header, position)) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        int length = header.getInt(0);
+
+        if (length < 0 || length > SECTOR_BYTES * numSectors) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+
+        byte[] data = new byte[length];
+
+        if (!readFully(ByteBuffer.wrap(data), position + 4)) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        return data;
+    }
+
+    /**
+     * Fill a buffer from the file starting at the given position.
+     * 
+     * @param buffer
+     * @param position
+     * @return false if the end of the file was reached first
+     * @throws IOException
+     */
+    private boolean readFully(ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+
+            if (read < 0) {
+                return false;
+            }
+
+            position += read;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
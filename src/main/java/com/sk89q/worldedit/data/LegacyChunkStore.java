@@ -20,11 +20,8 @@
 package com.sk89q.worldedit.data;
 
 import com.sk89q.jnbt.CompoundTag;
-import com.sk89q.jnbt.NBTInputStream;
-import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.*;
 import java.io.*;
-import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -76,6 +73,46 @@ public abstract class LegacyChunkStore extends ChunkStore {
     @Override
     public CompoundTag getChunkTag(Vector2D pos)
             throws DataException, IOException {
+        InputStream stream = getChunkInputStream(pos);
+
+        try {
+            return readLevelTag(new GZIPInputStream(stream));
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Get a chunk at a location.
+     *
+     * @param pos
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    @Override
+    public Chunk getChunk(Vector2D pos)
+            throws DataException, IOException {
+        InputStream stream = getChunkInputStream(pos);
+
+        try {
+            return new Chunk(new GZIPInputStream(stream));
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Get the input stream for the file of a chunk. The file is read into
+     * memory, so only reading it needs to be done one thread at a time.
+     *
+     * @param pos
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    private InputStream getChunkInputStream(Vector2D pos)
+            throws DataException, IOException {
         int x = pos.getBlockX();
         int z = pos.getBlockZ();
         
@@ -84,41 +121,22 @@ public abstract class LegacyChunkStore extends ChunkStore {
         String filename = "c." + Integer.toString(x, 36)
                 + "." + Integer.toString(z, 36) + ".dat";
 
-        InputStream stream = getInputStream(folder1, folder2, filename);
-        NBTInputStream nbt = new NBTInputStream(
-                new GZIPInputStream(stream));
-        Tag tag;
+        synchronized (this) {
+            InputStream stream = getInputStream(folder1, folder2, filename);
 
-        try {
-            tag = nbt.readTag();
-            if (!(tag instanceof CompoundTag)) {
-                throw new ChunkStoreException("CompoundTag expected for chunk; got "
-                        + tag.getClass().getName());
-            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
 
-            Map<String,Tag> children = (Map<String,Tag>)((CompoundTag)tag).getValue();
-            CompoundTag rootTag = null;
-
-            // Find Level tag
-            for (Map.Entry<String,Tag> entry : children.entrySet()) {
-                if (entry.getKey().equals("Level")) {
-                    if (entry.getValue() instanceof CompoundTag) {
-                        rootTag = (CompoundTag)entry.getValue();
-                        break;
-                    } else {
-                        throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
-                                + entry.getValue().getClass().getName());
-                    }
+                while ((read = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
                 }
-            }
 
-            if (rootTag == null) {
-                throw new ChunkStoreException("Missing root 'Level' tag");
+                return new ByteArrayInputStream(out.toByteArray());
+            } finally {
+                stream.close();
             }
-
-            return rootTag;
-        } finally {
-            stream.close();
         }
     }
 
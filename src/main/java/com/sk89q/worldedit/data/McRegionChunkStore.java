@@ -21,15 +21,47 @@ package com.sk89q.worldedit.data;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import com.sk89q.jnbt.CompoundTag;
-import com.sk89q.jnbt.NBTInputStream;
-import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.Vector2D;
 
 public abstract class McRegionChunkStore extends ChunkStore {
-    protected String curFilename = null;
-    protected McRegionReader cachedReader = null;
+    /**
+     * Maximum number of region files to keep open at once.
+     */
+    private static final int MAX_OPEN_READERS = 8;
+
+    /**
+     * Open readers that can read chunks in any order, in order of last use.
+     */
+    private Map<String, McRegionReader> readers =
+            new LinkedHashMap<String, McRegionReader>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, McRegionReader> entry) {
+            if (size() > MAX_OPEN_READERS) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                }
+                return true;
+            }
+            return false;
+        }
+    };
+    /**
+     * Last reader that can only read forward, which is closed as soon as
+     * another reader is needed.
+     */
+    private McRegionReader streamReader = null;
+    /**
+     * Set once the store has been closed, after which no more region files
+     * are opened.
+     */
+    private boolean closed = false;
     
     /**
      * Get the filename of a region file.
@@ -46,61 +78,106 @@ public abstract class McRegionChunkStore extends ChunkStore {
         return filename;
     }
     
+    /**
+     * Get a reader for the region file containing a chunk. Readers that can
+     * read chunks in any order are kept open for later chunks.
+     * 
+     * @param pos
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
     protected McRegionReader getReader(Vector2D pos) throws DataException, IOException {
+        if (closed) {
+            throw new IOException("The chunk store has been closed");
+        }
+
         String filename = getFilename(pos);
-        if (curFilename != null) {
-            if (curFilename.equals(filename)) {
-                return cachedReader;
-            } else {
-                try {
-                    cachedReader.close();
-                } catch (IOException e) {
-                }
+        McRegionReader reader = readers.get(filename);
+
+        if (reader != null) {
+            return reader;
+        }
+
+        closeStreamReader();
+        reader = openReader(filename);
+
+        if (reader.isRandomAccess()) {
+            readers.put(filename, reader);
+        } else {
+            streamReader = reader;
+        }
+
+        return reader;
+    }
+
+    /**
+     * Open a reader for a region file. By default the region file is read
+     * from its input stream.
+     * 
+     * @param filename
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    protected McRegionReader openReader(String filename)
+            throws DataException, IOException {
+        return new McRegionReader(getInputStream(filename));
+    }
+
+    /**
+     * Get the uncompressed input stream for a chunk. The compressed chunk
+     * is read into memory, so only reading it from the file needs to be
+     * done one thread at a time.
+     * 
+     * @param pos
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    private synchronized InputStream getChunkInputStream(Vector2D pos)
+            throws DataException, IOException {
+        InputStream stream = getReader(pos).getChunkInputStream(pos);
+
+        if (stream == null) {
+            throw new MissingChunkException(pos);
+        }
+
+        return stream;
+    }
+
+    /**
+     * Close the last reader that can only read forward.
+     */
+    private void closeStreamReader() {
+        if (streamReader != null) {
+            try {
+                streamReader.close();
+            } catch (IOException e) {
             }
+            streamReader = null;
         }
-        InputStream stream = getInputStream(filename);
-        cachedReader = new McRegionReader(stream);
-        //curFilename = filename;
-        return cachedReader;
     }
 
     @Override
     public CompoundTag getChunkTag(Vector2D pos) throws DataException,
             IOException {
         
-        McRegionReader reader = getReader(pos);
-        InputStream stream = reader.getChunkInputStream(pos);
-        NBTInputStream nbt = new NBTInputStream(stream);
-        Tag tag;
+        InputStream stream = getChunkInputStream(pos);
 
         try {
-            tag = nbt.readTag();
-            if (!(tag instanceof CompoundTag)) {
-                throw new ChunkStoreException("CompoundTag expected for chunk; got "
-                        + tag.getClass().getName());
-            }
-
-            Map<String,Tag> children = (Map<String,Tag>)((CompoundTag)tag).getValue();
-            CompoundTag rootTag = null;
-
-            // Find Level tag
-            for (Map.Entry<String,Tag> entry : children.entrySet()) {
-                if (entry.getKey().equals("Level")) {
-                    if (entry.getValue() instanceof CompoundTag) {
-                        rootTag = (CompoundTag)entry.getValue();
-                        break;
-                    } else {
-                        throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
-                                + entry.getValue().getClass().getName());
-                    }
-                }
-            }
+            return readLevelTag(stream);
+        } finally {
+            stream.close();
+        }
+    }
 
-            if (rootTag == null) {
-                throw new ChunkStoreException("Missing root 'Level' tag");
-            }
+    @Override
+    public Chunk getChunk(Vector2D pos) throws DataException, IOException {
+        InputStream stream = getChunkInputStream(pos);
 
-            return rootTag;
+        try {
+            return new Chunk(stream);
         } finally {
             stream.close();
         }
@@ -123,9 +200,14 @@ public abstract class McRegionChunkStore extends ChunkStore {
      * @throws IOException
      */
     @Override
-    public void close() throws IOException {
-        if (cachedReader != null) {
-            cachedReader.close();
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeStreamReader();
+
+        for (McRegionReader reader : readers.values()) {
+            reader.close();
         }
+
+        readers.clear();
     }
 }
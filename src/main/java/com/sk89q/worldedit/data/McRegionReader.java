@@ -90,6 +90,13 @@ public class McRegionReader {
         
         readHeader();
     }
+
+    /**
+     * Construct the reader for a subclass that reads the header and chunks
+     * itself.
+     */
+    protected McRegionReader() {
+    }
     
     /**
      * Read the header.
@@ -134,36 +141,71 @@ public class McRegionReader {
         int sectorNumber = offset >> 8;
         int numSectors = offset & 0xFF;
 
-        stream.seek(sectorNumber * SECTOR_BYTES);
-        int length = dataStream.readInt();
+        byte[] data = readChunkData(x, z, sectorNumber, numSectors);
 
-        if (length > SECTOR_BYTES * numSectors) {
+        if (data.length == 0) {
             throw new DataException("MCRegion chunk at "
-                    + x + "," + z + " has an invalid length of " + length);
+                    + x + "," + z + " has an invalid length of 0");
         }
 
-        byte version = dataStream.readByte();
+        byte version = data[0];
         
         if (version == VERSION_GZIP) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
-            return new GZIPInputStream(new ByteArrayInputStream(data));
+            return new GZIPInputStream(
+                    new ByteArrayInputStream(data, 1, data.length - 1));
         } else if (version == VERSION_DEFLATE) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
-            return new InflaterInputStream(new ByteArrayInputStream(data));
+            return new InflaterInputStream(
+                    new ByteArrayInputStream(data, 1, data.length - 1));
         } else {
             throw new DataException("MCRegion chunk at "
                     + x + "," + z + " has an unsupported version of " + version);
         }
     }
 
+    /**
+     * Read the stored data of a chunk, which is its version byte followed
+     * by the compressed chunk.
+     * 
+     * @param x
+     * @param z
+     * @param sectorNumber first sector of the chunk
+     * @param numSectors number of sectors taken up by the chunk
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    protected byte[] readChunkData(int x, int z, int sectorNumber,
+            int numSectors) throws IOException, DataException {
+        stream.seek(sectorNumber * SECTOR_BYTES);
+        int length = dataStream.readInt();
+
+        if (length < 0 || length > SECTOR_BYTES * numSectors) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+
+        byte[] data = new byte[length];
+
+        try {
+            dataStream.readFully(data);
+        } catch (EOFException e) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns whether chunks can be read in any order. Readers that can only
+     * seek forward should not be kept around to read more chunks.
+     * 
+     * @return
+     */
+    public boolean isRandomAccess() {
+        return false;
+    }
+
     /**
      * Get the offset for a chunk. May return 0 if it doesn't exist.
      * 
@@ -194,4 +236,4 @@ public class McRegionReader {
     public void close() throws IOException {
         stream.close();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -160,6 +160,7 @@ public class TrueZipMcRegionChunkStore extends McRegionChunkStore {
      */
     @Override
     public void close() throws IOException {
+        super.close();
         zip.close();
     }
 
@@ -157,6 +157,7 @@ public class ZippedMcRegionChunkStore extends McRegionChunkStore {
      */
     @Override
     public void close() throws IOException {
+        super.close();
         zip.close();
     }
 
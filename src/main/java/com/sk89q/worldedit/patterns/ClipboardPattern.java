@@ -19,23 +19,34 @@
 
 package com.sk89q.worldedit.patterns;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.TileEntityBlock;
 
 /**
- * Pattern that repeats the clipboard.
+ * Pattern that repeats the clipboard. The blocks of the clipboard are
+ * read once, when the pattern is created.
  *
  * @author sk89q
  */
-public class ClipboardPattern implements Pattern {
+public class ClipboardPattern implements CoordinatePattern {
+    private int width;
+    private int height;
+    private int length;
     /**
-     * Clipboard.
+     * Index in <code>blocks</code> of the block at each position, indexed
+     * by <code>(y * length + z) * width + x</code>.
      */
-    private CuboidClipboard clipboard;
+    private int[] indices;
     /**
-     * Size of the clipboard.
+     * Distinct blocks of the clipboard. Every block with tile entity data
+     * is kept separately.
      */
-    private Vector size;
+    private BaseBlock[] blocks;
 
     /**
      * Construct the object.
@@ -43,8 +54,42 @@ public class ClipboardPattern implements Pattern {
      * @param clipboard
      */
     public ClipboardPattern(CuboidClipboard clipboard) {
-        this.clipboard = clipboard;
-        this.size = clipboard.getSize();
+        width = clipboard.getWidth();
+        height = clipboard.getHeight();
+        length = clipboard.getLength();
+        indices = new int[width * height * length];
+
+        List<BaseBlock> blocks = new ArrayList<BaseBlock>();
+        Map<Integer,Integer> blockIndices = new HashMap<Integer,Integer>();
+        int index = 0;
+
+        for (int y = 0; y < height; ++y) {
+            for (int z = 0; z < length; ++z) {
+                for (int x = 0; x < width; ++x) {
+                    BaseBlock block = clipboard.getPoint(new Vector(x, y, z));
+
+                    if (block instanceof TileEntityBlock) {
+                        indices[index] = blocks.size();
+                        blocks.add(block);
+                    } else {
+                        int key = (block.getType() << 4) | block.getData();
+                        Integer blockIndex = blockIndices.get(key);
+
+                        if (blockIndex == null) {
+                            blockIndex = blocks.size();
+                            blockIndices.put(key, blockIndex);
+                            blocks.add(block);
+                        }
+
+                        indices[index] = blockIndex;
+                    }
+
+                    ++index;
+                }
+            }
+        }
+
+        this.blocks = blocks.toArray(new BaseBlock[blocks.size()]);
     }
 
     /**
@@ -54,10 +99,22 @@ public class ClipboardPattern implements Pattern {
      * @return
      */
     public BaseBlock next(Vector pos) {
-        int x = Math.abs(pos.getBlockX()) % size.getBlockX();
-        int y = Math.abs(pos.getBlockY()) % size.getBlockY();
-        int z = Math.abs(pos.getBlockZ()) % size.getBlockZ();
+        return next(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+    }
+
+    /**
+     * Get next block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public BaseBlock next(int x, int y, int z) {
+        x = Math.abs(x) % width;
+        y = Math.abs(y) % height;
+        z = Math.abs(z) % length;
 
-        return clipboard.getPoint(new Vector(x, y, z));
+        return blocks[indices[(y * length + z) * width + x]];
     }
 }
@@ -0,0 +1,42 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.patterns;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * A pattern that can also pick blocks by their coordinates, so that
+ * operations that work with coordinates don't need a vector for every
+ * block.
+ *
+ * @author sk89q
+ */
+public interface CoordinatePattern extends Pattern {
+    /**
+     * Get a block for a position. This is the same as
+     * <code>next(Vector)</code>, without needing a vector for every block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public BaseBlock next(int x, int y, int z);
+}
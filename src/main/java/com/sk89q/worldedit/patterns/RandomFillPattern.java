@@ -19,26 +19,31 @@
 
 package com.sk89q.worldedit.patterns;
 
-import java.util.Random;
 import java.util.List;
-import java.util.ArrayList;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.util.FastRandom;
 
 /**
- * Pattern proportionally fills.
+ * Pattern proportionally fills. Blocks are picked with Walker's alias
+ * method, which takes the same time no matter how many blocks there are.
  *
  * @author sk89q
  */
-public class RandomFillPattern implements Pattern {
+public class RandomFillPattern implements CoordinatePattern {
     /**
-     * Random number generator.
+     * Blocks.
      */
-    private static final Random random = new Random();
+    private BaseBlock[] blocks;
     /**
-     * Blocks and their proportions.
+     * For each block, the chance out of 2^32 that the block is picked
+     * instead of its alias when its slot is picked.
      */
-    private List<BlockChance> blocks;
+    private long[] thresholds;
+    /**
+     * For each block, the block to pick instead of it.
+     */
+    private int[] aliases;
 
     /**
      * Construct the object.
@@ -46,23 +51,63 @@ public class RandomFillPattern implements Pattern {
      * @param blocks
      */
     public RandomFillPattern(List<BlockChance> blocks) {
+        int n = blocks.size();
         double max = 0;
 
         for (BlockChance block : blocks) {
             max += block.getChance();
         }
 
-        List<BlockChance> finalBlocks = new ArrayList<BlockChance>();
+        this.blocks = new BaseBlock[n];
+        this.thresholds = new long[n];
+        this.aliases = new int[n];
 
-        double i = 0;
+        // Scale the chances so that they average 1
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
 
-        for (BlockChance block : blocks) {
-            double v = block.getChance() / max;
-            i += v;
-            finalBlocks.add(new BlockChance(block.getBlock(), i));
+        for (int i = 0; i < n; ++i) {
+            BlockChance block = blocks.get(i);
+            this.blocks[i] = block.getBlock();
+            scaled[i] = max > 0 ? block.getChance() * n / max : 1;
+
+            if (scaled[i] < 1) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        // Fill the unused part of every small slot with a large block
+        while (numSmall > 0 && numLarge > 0) {
+            int less = small[--numSmall];
+            int more = large[--numLarge];
+
+            thresholds[less] = (long) (scaled[less] * (1L << 32));
+            aliases[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+
+            if (scaled[more] < 1) {
+                small[numSmall++] = more;
+            } else {
+                large[numLarge++] = more;
+            }
         }
 
-        this.blocks = finalBlocks;
+        // Whatever is left is full, give or take rounding errors
+        while (numLarge > 0) {
+            int i = large[--numLarge];
+            thresholds[i] = 1L << 32;
+            aliases[i] = i;
+        }
+        while (numSmall > 0) {
+            int i = small[--numSmall];
+            thresholds[i] = 1L << 32;
+            aliases[i] = i;
+        }
     }
 
     /**
@@ -72,14 +117,31 @@ public class RandomFillPattern implements Pattern {
      * @return
      */
     public BaseBlock next(Vector pos) {
-        double r = random.nextDouble();
-        
-        for (BlockChance block : blocks) {
-            if (r <= block.getChance()) {
-                return block.getBlock();
-            }
+        return next(0, 0, 0);
+    }
+
+    /**
+     * Get next block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public BaseBlock next(int x, int y, int z) {
+        if (blocks.length == 0) {
+            throw new RuntimeException("ProportionalFillPattern");
         }
 
-        throw new RuntimeException("ProportionalFillPattern");
+        // The upper bits pick the slot and the lower bits pick between
+        // the slot's block and its alias
+        long r = FastRandom.get().nextLong();
+        int i = (int) (((r >>> 32) * blocks.length) >>> 32);
+
+        if ((r & 0xFFFFFFFFL) < thresholds[i]) {
+            return blocks[i];
+        } else {
+            return blocks[aliases[i]];
+        }
     }
 }
@@ -27,7 +27,7 @@ import com.sk89q.worldedit.blocks.BaseBlock;
  *
  * @author sk89q
  */
-public class SingleBlockPattern implements Pattern {
+public class SingleBlockPattern implements CoordinatePattern {
     /**
      * Block type.
      */
@@ -52,6 +52,18 @@ public class SingleBlockPattern implements Pattern {
         return block;
     }
 
+    /**
+     * Get next block.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public BaseBlock next(int x, int y, int z) {
+        return block;
+    }
+
     /**
      * Get the block.
      * 
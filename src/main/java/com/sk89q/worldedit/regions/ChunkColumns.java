@@ -0,0 +1,200 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+
+/**
+ * The columns of a region that are in one chunk. Every region is a set of
+ * columns between its minimum and maximum Y, so work that is done a chunk
+ * at a time only needs to know which columns of each chunk to take.
+ *
+ * @author sk89q
+ */
+public class ChunkColumns {
+    private final int chunkX;
+    private final int chunkZ;
+    private int minX = Integer.MAX_VALUE;
+    private int minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxZ = Integer.MIN_VALUE;
+    private int count = 0;
+    /**
+     * Bits of the columns in the region, indexed by
+     * <code>(z &amp; 15) &lt;&lt; 4 | (x &amp; 15)</code>.
+     */
+    private final long[] columns = new long[4];
+
+    /**
+     * Construct the columns of a chunk, with none of them in the region.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    private ChunkColumns(int chunkX, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+    }
+
+    /**
+     * Get the columns of a region, one entry for each chunk that has at
+     * least one of them, in the order that the region visits its chunks.
+     *
+     * @param region
+     * @return
+     */
+    public static List<ChunkColumns> getColumns(Region region) {
+        final List<ChunkColumns> chunks = new ArrayList<ChunkColumns>();
+
+        RegionVisitor visitor = new RegionVisitor() {
+            private ChunkColumns current;
+
+            public void visitChunk(int chunkX, int chunkZ) {
+                current = new ChunkColumns(chunkX, chunkZ);
+                chunks.add(current);
+            }
+
+            public void visit(int x, int y, int z) {
+                current.add(x, z);
+            }
+        };
+
+        try {
+            if (region instanceof CuboidRegion) {
+                ((CuboidRegion) region).visitColumns(visitor);
+            } else if (region instanceof Polygonal2DRegion) {
+                ((Polygonal2DRegion) region).visitColumns(visitor);
+            } else {
+                region.visitBlocks(visitor);
+            }
+        } catch (MaxChangedBlocksException e) {
+            // The visitor doesn't change any blocks
+            throw new RuntimeException(e);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Mark a column as being in the region.
+     *
+     * @param x
+     * @param z
+     */
+    private void add(int x, int z) {
+        int bit = (z & 15) << 4 | (x & 15);
+        long mask = 1L << (bit & 63);
+
+        if ((columns[bit >> 6] & mask) != 0) {
+            return;
+        }
+
+        columns[bit >> 6] |= mask;
+        ++count;
+        minX = Math.min(minX, x);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * Returns whether a column of this chunk is in the region.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    public boolean contains(int x, int z) {
+        int bit = (z & 15) << 4 | (x & 15);
+        return (columns[bit >> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Returns whether every column between the minimum and maximum X and Z
+     * is in the region.
+     *
+     * @return
+     */
+    public boolean isFull() {
+        return count == getWidth() * getLength();
+    }
+
+    /**
+     * @return the chunk X
+     */
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    /**
+     * @return the chunk Z
+     */
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * @return the lowest X of the columns
+     */
+    public int getMinX() {
+        return minX;
+    }
+
+    /**
+     * @return the lowest Z of the columns
+     */
+    public int getMinZ() {
+        return minZ;
+    }
+
+    /**
+     * @return the highest X of the columns
+     */
+    public int getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * @return the highest Z of the columns
+     */
+    public int getMaxZ() {
+        return maxZ;
+    }
+
+    /**
+     * Get the number of X coordinates between the minimum and maximum X.
+     *
+     * @return
+     */
+    public int getWidth() {
+        return maxX - minX + 1;
+    }
+
+    /**
+     * Get the number of Z coordinates between the minimum and maximum Z.
+     *
+     * @return
+     */
+    public int getLength() {
+        return maxZ - minZ + 1;
+    }
+}
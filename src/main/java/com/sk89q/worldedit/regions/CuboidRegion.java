@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.regions;
 
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.data.ChunkStore;
@@ -305,6 +306,70 @@ public class CuboidRegion implements Region {
                 && z >= min.getBlockZ() && z <= max.getBlockZ();
     }
 
+    /**
+     * Visit every block in the region, chunk by chunk.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    public void visitBlocks(RegionVisitor visitor)
+            throws MaxChangedBlocksException {
+        visitBlocks(visitor, getMinimumPoint().getBlockY(),
+                getMaximumPoint().getBlockY());
+    }
+
+    /**
+     * Visit one block of every column in the region, chunk by chunk.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    void visitColumns(RegionVisitor visitor)
+            throws MaxChangedBlocksException {
+        int y = getMinimumPoint().getBlockY();
+        visitBlocks(visitor, y, y);
+    }
+
+    /**
+     * Visit the blocks of the region between two Y coordinates, chunk by
+     * chunk.
+     *
+     * @param visitor
+     * @param minY
+     * @param maxY
+     * @throws MaxChangedBlocksException
+     */
+    private void visitBlocks(RegionVisitor visitor, int minY, int maxY)
+            throws MaxChangedBlocksException {
+        Vector min = getMinimumPoint();
+        Vector max = getMaximumPoint();
+
+        int minX = min.getBlockX();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxZ = max.getBlockZ();
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            int fromX = Math.max(minX, cx << 4);
+            int toX = Math.min(maxX, (cx << 4) + 15);
+
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int fromZ = Math.max(minZ, cz << 4);
+                int toZ = Math.min(maxZ, (cz << 4) + 15);
+
+                visitor.visitChunk(cx, cz);
+
+                for (int x = fromX; x <= toX; ++x) {
+                    for (int z = fromZ; z <= toZ; ++z) {
+                        for (int y = minY; y <= maxY; ++y) {
+                            visitor.visit(x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Get the iterator.
      * 
@@ -20,16 +20,19 @@
 package com.sk89q.worldedit.regions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockPosition;
 import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.LongHashSet;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.data.ChunkStore;
 
 /**
  * Represents a 2D polygonal region.
@@ -43,6 +46,16 @@ public class Polygonal2DRegion implements Region {
     protected int minY;
     protected int maxY;
     protected boolean hasY = false;
+    /**
+     * Offsets into <code>spans</code> for each X column from the minimum X,
+     * with one extra entry at the end. Null if not yet calculated.
+     */
+    private int[] spanOffsets;
+    /**
+     * Pairs of inclusive start and end Z coordinates of the spans in each
+     * X column, sorted by Z.
+     */
+    private int[] spans;
     
     /**
      * Construct the region.
@@ -84,6 +97,9 @@ public class Polygonal2DRegion implements Region {
      * called after points have been changed.
      */
     protected void recalculate() {
+        spanOffsets = null;
+        spans = null;
+
         if (points.size() == 0) {
             min = new BlockVector(0, 0, 0);
             max = new BlockVector(0, 0, 0);
@@ -189,17 +205,14 @@ public class Polygonal2DRegion implements Region {
      * @return number of blocks
      */
     public int getArea() {
-        double area = 0;
-        int i, j = points.size() - 1;
+        calculateSpans();
 
-        for (i = 0; i < points.size(); ++i) {
-            area += (points.get(j).getBlockX() + points.get(i).getBlockX())
-                    * (points.get(j).getBlockZ() - points.get(i).getBlockZ());
-            j = i;
+        int columns = 0;
+        for (int i = 0; i < spans.length; i += 2) {
+            columns += spans[i + 1] - spans[i] + 1;
         }
 
-        return (int)Math.floor(Math.abs(area * 0.5) 
-                * (maxY - minY + 1));
+        return columns * (maxY - minY + 1);
     }
 
     /**
@@ -285,17 +298,29 @@ public class Polygonal2DRegion implements Region {
      */
     public static boolean contains(List<BlockVector2D> points, int minY,
             int maxY, Vector pt) {
-        if (points.size() < 3) {
-            return false;
-        }
-        int targetX = pt.getBlockX(); //wide
         int targetY = pt.getBlockY(); //height
-        int targetZ = pt.getBlockZ(); //depth
         
         if (targetY < minY || targetY > maxY) {
             return false;
         }
-        
+
+        return contains(points, pt.getBlockX(), pt.getBlockZ());
+    }
+
+    /**
+     * Checks to see if a column is inside a polygon.
+     * 
+     * @param points 
+     * @param targetX 
+     * @param targetZ 
+     * @return 
+     */
+    private static boolean contains(List<BlockVector2D> points,
+            int targetX, int targetZ) {
+        if (points.size() < 3) {
+            return false;
+        }
+
         boolean inside = false;
         int npoints = points.size();
         int xNew, zNew;
@@ -343,17 +368,19 @@ public class Polygonal2DRegion implements Region {
      * @return
      */
     public Set<Vector2D> getChunks() {
+        calculateSpans();
+
         Set<Vector2D> chunks = new HashSet<Vector2D>();
+        LongHashSet found = new LongHashSet();
+        int minX = min.getBlockX();
 
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
+        for (int column = 0; column < spanOffsets.length - 1; ++column) {
+            int chunkX = (minX + column) >> 4;
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pt = new Vector(x, y, z);
-                    if (contains(pt)) { // Not the best
-                        chunks.add(ChunkStore.toChunk(pt));
+            for (int i = spanOffsets[column]; i < spanOffsets[column + 1]; i += 2) {
+                for (int chunkZ = spans[i] >> 4; chunkZ <= spans[i + 1] >> 4; ++chunkZ) {
+                    if (found.add(BlockPosition.pack(chunkX, 0, chunkZ))) {
+                        chunks.add(new BlockVector2D(chunkX, chunkZ));
                     }
                 }
             }
@@ -361,6 +388,264 @@ public class Polygonal2DRegion implements Region {
 
         return chunks;
     }
+
+    /**
+     * Work out which columns are in the polygon. Each X column gets a sorted
+     * list of Z spans, found by sweeping across a table of the edges sorted
+     * by X. A column is in the polygon under the same rules as
+     * <code>contains()</code>, so the spans always agree with it.
+     */
+    private void calculateSpans() {
+        if (spanOffsets != null) {
+            return;
+        }
+
+        int minX = min.getBlockX();
+        int width = max.getBlockX() - minX + 1;
+        int n = points.size();
+
+        spanOffsets = new int[width + 1];
+
+        if (n < 3) {
+            spans = new int[0];
+            return;
+        }
+
+        // Build the edge table, leaving out edges parallel to Z because
+        // they are never crossed
+        int[] edgeX1 = new int[n];
+        int[] edgeZ1 = new int[n];
+        int[] edgeX2 = new int[n];
+        int[] edgeZ2 = new int[n];
+        long[] edgeOrder = new long[n];
+        int edges = 0;
+
+        BlockVector2D last = points.get(n - 1);
+        for (BlockVector2D pt : points) {
+            if (pt.getBlockX() != last.getBlockX()) {
+                boolean forward = pt.getBlockX() > last.getBlockX();
+                BlockVector2D from = forward ? last : pt;
+                BlockVector2D to = forward ? pt : last;
+
+                edgeX1[edges] = from.getBlockX();
+                edgeZ1[edges] = from.getBlockZ();
+                edgeX2[edges] = to.getBlockX();
+                edgeZ2[edges] = to.getBlockZ();
+                edgeOrder[edges] = ((long) edgeX1[edges] << 32) | edges;
+                ++edges;
+            }
+            last = pt;
+        }
+
+        Arrays.sort(edgeOrder, 0, edges);
+
+        // Corners are always inside
+        long[] corners = new long[n];
+        for (int i = 0; i < n; ++i) {
+            BlockVector2D pt = points.get(i);
+            corners[i] = ((long) pt.getBlockX() << 32)
+                    | (pt.getBlockZ() & 0xFFFFFFFFL);
+        }
+        Arrays.sort(corners);
+
+        int[] active = new int[edges];
+        int activeCount = 0;
+        int nextEdge = 0;
+        int nextCorner = 0;
+        int[] crossings = new int[edges];
+        int[] columnSpans = new int[(edges + n) * 2];
+        int[] result = new int[16];
+        int resultSize = 0;
+
+        for (int column = 0; column < width; ++column) {
+            int x = minX + column;
+
+            // An edge crosses a column if x1 < x <= x2
+            while (nextEdge < edges
+                    && (int) (edgeOrder[nextEdge] >> 32) < x) {
+                active[activeCount++] = (int) edgeOrder[nextEdge++];
+            }
+
+            int crossingCount = 0;
+            for (int i = 0; i < activeCount; ++i) {
+                int e = active[i];
+
+                if (edgeX2[e] < x) {
+                    active[i--] = active[--activeCount];
+                    continue;
+                }
+
+                crossings[crossingCount++] = edgeZ1[e] + (int) floorDiv(
+                        (long) (edgeZ2[e] - edgeZ1[e]) * (x - edgeX1[e]),
+                        edgeX2[e] - edgeX1[e]);
+            }
+
+            Arrays.sort(crossings, 0, crossingCount);
+
+            // A block is inside if an odd number of crossings are at or
+            // past its Z
+            int spanCount = 0;
+            for (int i = crossingCount % 2; i + 1 < crossingCount; i += 2) {
+                if (crossings[i] + 1 <= crossings[i + 1]) {
+                    columnSpans[spanCount++] = crossings[i] + 1;
+                    columnSpans[spanCount++] = crossings[i + 1];
+                }
+            }
+
+            while (nextCorner < n && (int) (corners[nextCorner] >> 32) < x) {
+                ++nextCorner;
+            }
+            while (nextCorner < n && (int) (corners[nextCorner] >> 32) == x) {
+                int z = (int) corners[nextCorner++];
+                columnSpans[spanCount++] = z;
+                columnSpans[spanCount++] = z;
+            }
+
+            // Sort the spans by start and merge them
+            sortSpans(columnSpans, spanCount);
+
+            spanOffsets[column] = resultSize;
+
+            for (int i = 0; i < spanCount; i += 2) {
+                int start = columnSpans[i];
+                int end = columnSpans[i + 1];
+
+                if (resultSize > spanOffsets[column]
+                        && start <= result[resultSize - 1] + 1) {
+                    result[resultSize - 1] = Math.max(result[resultSize - 1], end);
+                    continue;
+                }
+
+                if (resultSize + 2 > result.length) {
+                    int[] newResult = new int[result.length * 2];
+                    System.arraycopy(result, 0, newResult, 0, resultSize);
+                    result = newResult;
+                }
+
+                result[resultSize++] = start;
+                result[resultSize++] = end;
+            }
+        }
+
+        spanOffsets[width] = resultSize;
+        spans = new int[resultSize];
+        System.arraycopy(result, 0, spans, 0, resultSize);
+    }
+
+    /**
+     * Sort pairs of numbers by their first number. There are only ever a
+     * few spans in a column, so this is an insertion sort.
+     *
+     * @param pairs
+     * @param length number of ints used in the array
+     */
+    private static void sortSpans(int[] pairs, int length) {
+        for (int i = 2; i < length; i += 2) {
+            int start = pairs[i];
+            int end = pairs[i + 1];
+            int j = i - 2;
+
+            while (j >= 0 && pairs[j] > start) {
+                pairs[j + 2] = pairs[j];
+                pairs[j + 3] = pairs[j + 1];
+                j -= 2;
+            }
+
+            pairs[j + 2] = start;
+            pairs[j + 3] = end;
+        }
+    }
+
+    /**
+     * Divide, rounding towards negative infinity.
+     *
+     * @param a
+     * @param b positive divisor
+     * @return
+     */
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        if ((a % b) < 0) {
+            --q;
+        }
+        return q;
+    }
+
+    /**
+     * Visit every block in the region, chunk by chunk.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    public void visitBlocks(RegionVisitor visitor)
+            throws MaxChangedBlocksException {
+        visitBlocks(visitor, minY, maxY);
+    }
+
+    /**
+     * Visit one block of every column in the region, chunk by chunk.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    void visitColumns(RegionVisitor visitor)
+            throws MaxChangedBlocksException {
+        visitBlocks(visitor, minY, minY);
+    }
+
+    /**
+     * Visit the blocks of the region between two Y coordinates, chunk by
+     * chunk.
+     *
+     * @param visitor
+     * @param fromY
+     * @param toY
+     * @throws MaxChangedBlocksException
+     */
+    private void visitBlocks(RegionVisitor visitor, int fromY, int toY)
+            throws MaxChangedBlocksException {
+        calculateSpans();
+
+        int minX = min.getBlockX();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxZ = max.getBlockZ();
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            int fromX = Math.max(minX, cx << 4);
+            int toX = Math.min(maxX, (cx << 4) + 15);
+
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int chunkMinZ = cz << 4;
+                int chunkMaxZ = chunkMinZ + 15;
+                boolean visitedChunk = false;
+
+                for (int x = fromX; x <= toX; ++x) {
+                    int column = x - minX;
+
+                    for (int i = spanOffsets[column]; i < spanOffsets[column + 1]; i += 2) {
+                        int fromZ = Math.max(spans[i], chunkMinZ);
+                        int toZ = Math.min(spans[i + 1], chunkMaxZ);
+
+                        if (fromZ > toZ) {
+                            continue;
+                        }
+
+                        if (!visitedChunk) {
+                            visitor.visitChunk(cx, cz);
+                            visitedChunk = true;
+                        }
+
+                        for (int z = fromZ; z <= toZ; ++z) {
+                            for (int y = fromY; y <= toY; ++y) {
+                                visitor.visit(x, y, z);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
     
     /**
      * Return the number of points.
@@ -401,131 +686,61 @@ public class Polygonal2DRegion implements Region {
      */
     public Iterator<BlockVector> iterator() {
         return new Polygonal2DRegionIterator(this);
-        
-        /*
-        Incomplete iterator. Where's my yield?!
-        
-        ArrayList<BlockVector> items = new ArrayList<BlockVector>();
-        
-        int nodes, pixelZ, i, j, swap;
-        int n = points.size();
-        int[] nodeX = new int[n];
-
-        int minZ = getMinimumPoint().getBlockZ();
-        int maxZ = getMaximumPoint().getBlockZ();
-        
-        for (pixelZ = minZ; pixelZ < maxZ; ++pixelZ) {
-            // Build a list of nodes
-            nodes = 0;
-            j = n - 1;
-            for (i = 0; i < n; ++i) {
-                if (points.get(i).getBlockZ() < (double) pixelZ
-                        && points.get(j).getBlockZ() >= (double) pixelZ
-                        || points.get(j).getBlockZ() < (double) pixelZ
-                        && points.get(i).getBlockZ() >= (double) pixelZ) {
-                    nodeX[nodes++] = (int) (points.get(i).getBlockX()
-                            + (pixelZ - points.get(i).getBlockZ())
-                            / (points.get(j).getBlockZ() - points.get(i)
-                                    .getBlockZ())
-                            * (points.get(j).getBlockX() - points.get(i)
-                                    .getBlockX()));
-                }
-                j = i;
-            }
-
-            // Sort the nodes, via a simple bubble sort
-            i = 0;
-            while (i < nodes - 1) {
-                if (nodeX[i] > nodeX[i + 1]) {
-                    swap = nodeX[i];
-                    nodeX[i] = nodeX[i + 1];
-                    nodeX[i + 1] = swap;
-                    if (i > 0)
-                        --i;
-                } else {
-                    ++i;
-                }
-            }
-
-            // Fill the pixels between node pairs
-            for (i = 0; i < nodes; i += 2) {
-                for (j = nodeX[i]; j < nodeX[i + 1]; ++j) {
-                    for (int y = minY; y >= maxY; ++y) {
-                        items.add(new BlockVector(j, y, pixelZ));
-                    }
-                }
-            }
-        }
-        
-        return items.iterator();*/
     }
     
     /**
-     * A terrible polygonal region iterator.
+     * Iterates over the spans of the region's columns.
      */
     public class Polygonal2DRegionIterator implements Iterator<BlockVector> {
-        protected List<BlockVector2D> points = new ArrayList<BlockVector2D>();
         protected int minX;
         protected int minY;
-        protected int minZ;
-        protected int maxX;
         protected int maxY;
-        protected int maxZ;
-        protected int n;
-        protected int i;
-        protected int curX;
+        protected int[] spanOffsets;
+        protected int[] spans;
+        protected int column;
+        protected int span;
         protected int curZ;
         protected int curY;
         protected BlockVector next;
         
         public Polygonal2DRegionIterator(Polygonal2DRegion region) {
-            points = new ArrayList<BlockVector2D>(region.points);
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-            minX = min.getBlockX();
-            minY = min.getBlockY();
-            minZ = min.getBlockZ();
-            maxX = max.getBlockX();
-            maxY = max.getBlockY();
-            maxZ = max.getBlockZ();
-            n = (maxX - minX + 1) * (maxZ - minZ + 1);
-            i = 0;
-            curX = 0;
-            curZ = 0;
+            region.calculateSpans();
+            minX = region.min.getBlockX();
+            minY = region.minY;
+            maxY = region.maxY;
+            spanOffsets = region.spanOffsets;
+            spans = region.spans;
+            column = 0;
+            span = spans.length > 0 ? 0 : -1;
+            curZ = span != -1 ? spans[0] : 0;
             curY = minY;
             next = null;
             findNext();
         }
         
         private void findNext() {
-            if (i >= n) {
+            if (span == -1 || span >= spans.length || minY > maxY) {
                 next = null;
                 return;
             }
-            
-            if (next != null && curY <= maxY) {
-                ++curY;
-                next = new BlockVector(curX, curY, curZ);
-                if (curY > maxY) {
-                    ++i;
-                    curY = minY;
-                } else {
-                    return;
-                }
-            } 
-            
-            while (i < n) {
-                curZ = i / (maxX - minX + 1) + minZ;
-                curX = (i % (maxX - minX + 1)) + minX;
-                BlockVector pt = new BlockVector(curX, minY, curZ);
-                if (contains(points, minY, maxY, pt)) {
-                    next = pt;
-                    return;
+
+            while (spanOffsets[column + 1] <= span) {
+                ++column;
+            }
+
+            next = new BlockVector(minX + column, curY, curZ);
+
+            if (++curY > maxY) {
+                curY = minY;
+
+                if (++curZ > spans[span + 1]) {
+                    span += 2;
+
+                    if (span < spans.length) {
+                        curZ = spans[span];
+                    }
                 }
-                ++i;
             }
-            
-            next = null;
         }
 
         public boolean hasNext() {
@@ -533,6 +748,9 @@ public class Polygonal2DRegion implements Region {
         }
 
         public BlockVector next() {
+            if (next == null) {
+                throw new java.util.NoSuchElementException();
+            }
             BlockVector next = this.next;
             findNext();
             return next;
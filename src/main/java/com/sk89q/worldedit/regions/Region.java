@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.regions;
 
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import java.util.Set;
@@ -92,4 +93,14 @@ public interface Region extends Iterable<BlockVector> {
      * @return
      */
     public Set<Vector2D> getChunks();
+    /**
+     * Visit every block in the region, chunk by chunk. Within a chunk,
+     * blocks are visited in X, then Z, then Y order, with Y changing
+     * the fastest.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    public void visitBlocks(RegionVisitor visitor)
+            throws MaxChangedBlocksException;
 }
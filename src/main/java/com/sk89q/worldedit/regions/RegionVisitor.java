@@ -0,0 +1,50 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import com.sk89q.worldedit.MaxChangedBlocksException;
+
+/**
+ * Receives the blocks of a region from {@link Region#visitBlocks}. Blocks
+ * are given one chunk at a time, so an operation can keep per-chunk state
+ * without looking up the chunk for every block.
+ *
+ * @author sk89q
+ */
+public interface RegionVisitor {
+    /**
+     * Called before the blocks of a chunk are visited. Only chunks that
+     * have at least one block in the region are visited.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void visitChunk(int chunkX, int chunkZ);
+
+    /**
+     * Called for each block in the region.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @throws MaxChangedBlocksException
+     */
+    public void visit(int x, int y, int z) throws MaxChangedBlocksException;
+}
@@ -23,13 +23,29 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import com.sk89q.worldedit.WorldEdit;
 
 /**
+ * Lists the snapshots in a directory. The snapshots and their dates are
+ * kept in a catalog that is only rebuilt when the directory has been
+ * modified, and the catalog can be saved to an index file so that it
+ * survives restarts.
  *
  * @author sk89q
  */
 public class SnapshotRepository {
+    /**
+     * Directories modified less than this many milliseconds before they
+     * were listed are listed again next time, as a change made in the
+     * same tick of the file system's clock would go unnoticed.
+     */
+    private static final long MODIFIED_RESOLUTION = 2000;
+
     /**
      * Stores the directory the snapshots come from.
      */
@@ -41,6 +57,37 @@ public class SnapshotRepository {
     protected List<SnapshotDateParser> dateParsers
             = new ArrayList<SnapshotDateParser>();
 
+    /**
+     * File to save the catalog to, or null.
+     */
+    private File indexFile;
+    /**
+     * Whether the index file has been read.
+     */
+    private boolean indexLoaded = false;
+    /**
+     * Catalog entries keyed by snapshot name.
+     */
+    private Map<String, CatalogEntry> catalog =
+            new HashMap<String, CatalogEntry>();
+    /**
+     * Modification time of the directory when the catalog was built, or
+     * -1 if it has to be built again.
+     */
+    private long catalogModified = -1;
+    /**
+     * All snapshots, oldest first.
+     */
+    private Snapshot[] sorted = new Snapshot[0];
+    /**
+     * Snapshots with a date, oldest first.
+     */
+    private Snapshot[] dated = new Snapshot[0];
+    /**
+     * Dates of the snapshots with a date, in milliseconds.
+     */
+    private long[] dates = new long[0];
+
     /**
      * Create a new instance of a repository.
      *
@@ -62,6 +109,17 @@ public class SnapshotRepository {
         this(new File(dir));
     }
 
+    /**
+     * Set the file to save the catalog to. The catalog is read from it the
+     * first time it is needed, if it exists.
+     *
+     * @param indexFile
+     */
+    public synchronized void setIndexFile(File indexFile) {
+        this.indexFile = indexFile;
+        indexLoaded = false;
+    }
+
     /**
      * Get a list of snapshots in a directory. The newest snapshot is
      * near the top of the array.
@@ -69,27 +127,17 @@ public class SnapshotRepository {
      * @param newestFirst 
      * @return
      */
-    public List<Snapshot> getSnapshots(boolean newestFirst) {
-        FilenameFilter filter = new FilenameFilter() {
-            public boolean accept(File dir, String name) {
-                File f = new File(dir, name);
-                return isValidSnapshot(f);
-            }
-        };
+    public synchronized List<Snapshot> getSnapshots(boolean newestFirst) {
+        refreshCatalog();
 
-        String[] snapshotNames = dir.list(filter);
-        List<Snapshot> list = new ArrayList<Snapshot>(snapshotNames.length);
-        
-        for (String name : snapshotNames) {
-            Snapshot snapshot = new Snapshot(this, name);
-            detectDate(snapshot);
+        List<Snapshot> list = new ArrayList<Snapshot>(sorted.length);
+
+        for (Snapshot snapshot : sorted) {
             list.add(snapshot);
         }
 
         if (newestFirst) {
-            Collections.sort(list, Collections.reverseOrder());
-        } else {
-            Collections.sort(list);
+            Collections.reverse(list);
         }
 
         return list;
@@ -101,20 +149,24 @@ public class SnapshotRepository {
      * @param date
      * @return
      */
-    public Snapshot getSnapshotAfter(Calendar date) {
-        List<Snapshot> snapshots = getSnapshots(true);
-        Snapshot last = null;
-        
-        for (Snapshot snapshot : snapshots) {
-            if (snapshot.getDate() != null
-                    && snapshot.getDate().before(date)) {
-                return last;
+    public synchronized Snapshot getSnapshotAfter(Calendar date) {
+        refreshCatalog();
+
+        // Find the oldest snapshot that is not before the date
+        long time = date.getTimeInMillis();
+        int low = 0;
+        int high = dates.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-            
-            last = snapshot;
         }
-        
-        return last;
+
+        return low < dated.length ? dated[low] : null;
     }
     
     /**
@@ -123,19 +175,196 @@ public class SnapshotRepository {
      * @param date
      * @return
      */
-    public Snapshot getSnapshotBefore(Calendar date) {
-        List<Snapshot> snapshots = getSnapshots(false);
-        Snapshot last = null;
-        
-        for (Snapshot snapshot : snapshots) {
-            if (snapshot.getDate().after(date)) {
-                return last;
+    public synchronized Snapshot getSnapshotBefore(Calendar date) {
+        refreshCatalog();
+
+        // Find the newest snapshot that is not after the date
+        long time = date.getTimeInMillis();
+        int low = 0;
+        int high = dates.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low > 0 ? dated[low - 1] : null;
+    }
+
+    /**
+     * Build the catalog again if the directory has been modified since it
+     * was last built. Dates are only detected again for snapshots that were
+     * added or modified.
+     */
+    private void refreshCatalog() {
+        if (!indexLoaded) {
+            indexLoaded = true;
+
+            if (indexFile != null && indexFile.exists()) {
+                loadIndex();
+            }
+        }
+
+        long modified = dir.lastModified();
+
+        if (catalogModified != -1 && modified == catalogModified) {
+            return;
+        }
+
+        FilenameFilter filter = new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                File f = new File(dir, name);
+                return isValidSnapshot(f);
+            }
+        };
+
+        String[] snapshotNames = dir.list(filter);
+        Map<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+
+        if (snapshotNames != null) {
+            for (String name : snapshotNames) {
+                CatalogEntry entry = catalog.get(name);
+                long fileModified = new File(dir, name).lastModified();
+
+                if (entry == null || entry.modified != fileModified) {
+                    Snapshot snapshot = new Snapshot(this, name);
+                    detectDate(snapshot);
+                    entry = new CatalogEntry(snapshot, fileModified);
+                }
+
+                entries.put(name, entry);
+            }
+        }
+
+        catalog = entries;
+        catalogModified = System.currentTimeMillis() - modified
+                < MODIFIED_RESOLUTION ? -1 : modified;
+        sortCatalog();
+
+        if (indexFile != null) {
+            saveIndex();
+        }
+    }
+
+    /**
+     * Sort the snapshots in the catalog.
+     */
+    private void sortCatalog() {
+        List<Snapshot> list = new ArrayList<Snapshot>(catalog.size());
+        List<Snapshot> datedList = new ArrayList<Snapshot>(catalog.size());
+
+        for (CatalogEntry entry : catalog.values()) {
+            list.add(entry.snapshot);
+
+            if (entry.snapshot.getDate() != null) {
+                datedList.add(entry.snapshot);
+            }
+        }
+
+        Collections.sort(list);
+        Collections.sort(datedList);
+
+        sorted = list.toArray(new Snapshot[list.size()]);
+        dated = datedList.toArray(new Snapshot[datedList.size()]);
+        dates = new long[dated.length];
+
+        for (int i = 0; i < dated.length; ++i) {
+            dates[i] = dated[i].getDate().getTimeInMillis();
+        }
+    }
+
+    /**
+     * Read the catalog from the index file. The first line holds the
+     * modification time of the directory, and every other line holds the
+     * modification time, date (or -) and name of a snapshot, separated by
+     * tabs.
+     */
+    private void loadIndex() {
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(indexFile), "UTF-8"));
+
+            long modified = Long.parseLong(reader.readLine());
+            Map<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+
+                if (parts.length != 3) {
+                    throw new IOException("Invalid line: " + line);
+                }
+
+                Snapshot snapshot = new Snapshot(this, parts[2]);
+
+                if (!parts[1].equals("-")) {
+                    Calendar date = new GregorianCalendar();
+                    date.setTimeInMillis(Long.parseLong(parts[1]));
+                    snapshot.setDate(date);
+                }
+
+                entries.put(parts[2], new CatalogEntry(snapshot,
+                        Long.parseLong(parts[0])));
+            }
+
+            catalog = entries;
+            catalogModified = modified;
+            sortCatalog();
+        } catch (IOException e) {
+            WorldEdit.logger.log(Level.WARNING,
+                    "WorldEdit: Failed to read snapshot index " + indexFile, e);
+        } catch (NumberFormatException e) {
+            WorldEdit.logger.log(Level.WARNING,
+                    "WorldEdit: Failed to read snapshot index " + indexFile, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the catalog to the index file.
+     */
+    private void saveIndex() {
+        Writer writer = null;
+
+        try {
+            File parent = indexFile.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(indexFile), "UTF-8"));
+            writer.write(catalogModified + "\n");
+
+            for (Map.Entry<String, CatalogEntry> entry : catalog.entrySet()) {
+                Calendar date = entry.getValue().snapshot.getDate();
+                writer.write(entry.getValue().modified + "\t"
+                        + (date != null ? Long.toString(date.getTimeInMillis()) : "-")
+                        + "\t" + entry.getKey() + "\n");
+            }
+        } catch (IOException e) {
+            WorldEdit.logger.log(Level.WARNING,
+                    "WorldEdit: Failed to save snapshot index " + indexFile, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
             }
-            
-            last = snapshot;
         }
-        
-        return last;
     }
     
     /**
@@ -160,14 +389,14 @@ public class SnapshotRepository {
      *
      * @return
      */
-    public Snapshot getDefaultSnapshot() {
-        List<Snapshot> snapshots = getSnapshots(true);
+    public synchronized Snapshot getDefaultSnapshot() {
+        refreshCatalog();
 
-        if (snapshots.size() == 0) {
+        if (sorted.length == 0) {
             return null;
         }
 
-        return snapshots.get(0);
+        return sorted[sorted.length - 1];
     }
 
     /**
@@ -223,4 +452,21 @@ public class SnapshotRepository {
     public File getDirectory() {
         return dir;
     }
+
+    /**
+     * A snapshot in the catalog.
+     */
+    private static class CatalogEntry {
+        private final Snapshot snapshot;
+        /**
+         * Modification time of the snapshot's file when its date was
+         * detected.
+         */
+        private final long modified;
+
+        private CatalogEntry(Snapshot snapshot, long modified) {
+            this.snapshot = snapshot;
+            this.modified = modified;
+        }
+    }
 }
@@ -23,10 +23,14 @@ import com.sk89q.worldedit.regions.*;
 import com.sk89q.worldedit.blocks.*;
 import com.sk89q.worldedit.data.*;
 import java.io.IOException;
-import java.util.Map;
-import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *
@@ -34,10 +38,18 @@ import java.util.ArrayList;
  */
 public class SnapshotRestore {
     /**
-     * Store a list of chunks that are needed and the points in them.
+     * Store a list of chunks that are needed and the part of each that is
+     * in the region.
      */
-    private Map<BlockVector2D,ArrayList<Vector>> neededChunks =
-            new LinkedHashMap<BlockVector2D,ArrayList<Vector>>();
+    private List<ChunkColumns> neededChunks;
+    /**
+     * Lowest Y in the region.
+     */
+    private int minY;
+    /**
+     * Highest Y in the region.
+     */
+    private int maxY;
     /**
      * Chunk store.
      */
@@ -63,106 +75,240 @@ public class SnapshotRestore {
      */
     public SnapshotRestore(ChunkStore chunkStore, Region region) {
         this.chunkStore = chunkStore;
-        
-        if (region instanceof CuboidRegion) {
-            findNeededCuboidChunks(region);
-        } else {
-            findNeededChunks(region);
-        }
+
+        minY = region.getMinimumPoint().getBlockY();
+        maxY = region.getMaximumPoint().getBlockY();
+        neededChunks = ChunkColumns.getColumns(region);
     }
 
     /**
-     * Find needed chunks in the cuboid of the region.
+     * Get the number of chunks that are needed.
+     * 
+     * @return
+     */
+    public int getChunksAffected() {
+        return neededChunks.size();
+    }
+
+    /**
+     * Restores to world.
      *
-     * @param region
+     * @param editSession
+     * @throws MaxChangedBlocksException 
+     */
+    public void restore(EditSession editSession)
+            throws MaxChangedBlocksException {
+        restore(editSession, null, 1);
+    }
+
+    /**
+     * Restores to world. Upcoming chunks are loaded and decoded by the
+     * executor while the blocks of earlier chunks are being set, and at
+     * most the given number of chunks are loaded ahead.
+     *
+     * @param editSession
+     * @param executor executor to load chunks with, or null to load them
+     *            on this thread
+     * @param maxPending maximum number of chunks to load ahead
+     * @throws MaxChangedBlocksException 
      */
-    private void findNeededCuboidChunks(Region region) {
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
+    public void restore(EditSession editSession, Executor executor,
+            int maxPending) throws MaxChangedBlocksException {
 
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    BlockVector2D chunkPos = ChunkStore.toChunk(pos);
+        missingChunks = new ArrayList<Vector2D>();
+        errorChunks = new ArrayList<Vector2D>();
 
-                    // Unidentified chunk
-                    if (!neededChunks.containsKey(chunkPos)) {
-                        neededChunks.put(chunkPos, new ArrayList<Vector>());
-                    }
+        LinkedList<ChunkLoad> pending = new LinkedList<ChunkLoad>();
+        int next = 0;
 
-                    neededChunks.get(chunkPos).add(pos);
+        try {
+            // Now let's start restoring!
+            for (int i = 0; i < neededChunks.size(); ++i) {
+                while (next < neededChunks.size()
+                        && (next <= i || pending.size() < maxPending)) {
+                    pending.add(load(next++, executor));
                 }
+
+                ChunkLoad load = pending.removeFirst();
+                Chunk chunk;
+
+                try {
+                    chunk = load.getChunk();
+                } catch (MissingChunkException me) {
+                    missingChunks.add(load.chunkPos);
+                    continue;
+                } catch (DataException de) {
+                    errorChunks.add(load.chunkPos);
+                    lastErrorMessage = de.getMessage();
+                    continue;
+                } catch (IOException ioe) {
+                    errorChunks.add(load.chunkPos);
+                    lastErrorMessage = ioe.getMessage();
+                    continue;
+                }
+
+                try {
+                    // Now just copy blocks!
+                    restore(neededChunks.get(i), chunk, editSession);
+                } catch (DataException de) {
+                    errorChunks.add(load.chunkPos);
+                    lastErrorMessage = de.getMessage();
+                }
+            }
+        } finally {
+            // Loads that have started are still using the chunk store, so
+            // wait for them before the caller can close it
+            for (ChunkLoad load : pending) {
+                load.cancelOrWait();
             }
         }
     }
 
     /**
-     * Find needed chunks in the region.
+     * Start loading a needed chunk.
      *
-     * @param region
+     * @param index index of the chunk in the needed chunks
+     * @param executor executor to load the chunk with, or null
+     * @return
      */
-    private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (Vector pos : region) {
-            BlockVector2D chunkPos = ChunkStore.toChunk(pos);
+    private ChunkLoad load(int index, Executor executor) {
+        ChunkColumns area = neededChunks.get(index);
+        ChunkLoad load = new ChunkLoad(
+                new BlockVector2D(area.getChunkX(), area.getChunkZ()));
 
-            // Unidentified chunk
-            if (!neededChunks.containsKey(chunkPos)) {
-                neededChunks.put(chunkPos, new ArrayList<Vector>());
+        if (executor != null) {
+            try {
+                executor.execute(load);
+                return load;
+            } catch (RejectedExecutionException e) {
             }
-
-            neededChunks.get(chunkPos).add(pos);
         }
+
+        load.run();
+        return load;
     }
 
     /**
-     * Get the number of chunks that are needed.
-     * 
-     * @return
+     * Copy the blocks in the columns of a chunk from the snapshot.
+     *
+     * @param area
+     * @param chunk
+     * @param editSession
+     * @throws DataException
+     * @throws MaxChangedBlocksException
      */
-    public int getChunksAffected() {
-        return neededChunks.size();
+    private void restore(ChunkColumns area, Chunk chunk,
+            EditSession editSession)
+            throws DataException, MaxChangedBlocksException {
+        for (int x = area.getMinX(); x <= area.getMaxX(); ++x) {
+            for (int z = area.getMinZ(); z <= area.getMaxZ(); ++z) {
+                if (!area.contains(x, z)) {
+                    continue;
+                }
+
+                for (int y = minY; y <= maxY; ++y) {
+                    Vector pos = new Vector(x, y, z);
+                    editSession.setBlock(pos, chunk.getBlock(pos));
+                }
+            }
+        }
     }
 
     /**
-     * Restores to world.
-     *
-     * @param editSession
-     * @throws MaxChangedBlocksException 
+     * Loads a chunk from the chunk store.
      */
-    public void restore(EditSession editSession)
-            throws MaxChangedBlocksException {
+    private class ChunkLoad extends FutureTask<Chunk> {
+        private final BlockVector2D chunkPos;
+        /**
+         * Set when the load starts, unless it was cancelled first.
+         */
+        private boolean started = false;
+        /**
+         * Set when a started load has finished.
+         */
+        private boolean finished = false;
 
-        missingChunks = new ArrayList<Vector2D>();
-        errorChunks = new ArrayList<Vector2D>();
+        private ChunkLoad(final BlockVector2D chunkPos) {
+            super(new Callable<Chunk>() {
+                public Chunk call() throws Exception {
+                    return chunkStore.getChunk(chunkPos);
+                }
+            });
+
+            this.chunkPos = chunkPos;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isCancelled()) {
+                    return;
+                }
+                started = true;
+            }
+
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    finished = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Cancel the load if it has not started yet, or otherwise wait for
+         * it to finish.
+         */
+        public synchronized void cancelOrWait() {
+            if (!started) {
+                cancel(false);
+                return;
+            }
+
+            boolean interrupted = false;
+
+            while (!finished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
 
-        // Now let's start restoring!
-        for (Map.Entry<BlockVector2D,ArrayList<Vector>> entry :
-                neededChunks.entrySet()) {
-            BlockVector2D chunkPos = entry.getKey();
-            Chunk chunk;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
 
+        /**
+         * Wait for the chunk to be loaded.
+         *
+         * @return
+         * @throws DataException
+         * @throws IOException
+         */
+        public Chunk getChunk() throws DataException, IOException {
             try {
-                chunk = chunkStore.getChunk(chunkPos);
-                // Good, the chunk could be at least loaded
+                return super.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading chunk");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
 
-                // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
-                    BaseBlock block = chunk.getBlock(pos);
-                    editSession.setBlock(pos, block);
+                if (cause instanceof DataException) {
+                    throw (DataException) cause;
+                } else if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
+
+                throw new DataException("Failed to load chunk: " + cause);
             }
         }
     }
@@ -19,9 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -58,15 +55,14 @@ public class FloatingTreeRemover implements BlockTool {
             return true;
         }
         
-        HashSet<BlockVector> blockSet = new HashSet<BlockVector>();
         try {
-            if (!recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, blockSet, 0)) {
+            LongHashSet blockSet = findTree(editSession, clicked, range);
+            if (blockSet == null) {
                 player.printError("That's not a floating tree.");
                 return true;
             }
-            for (Iterator<BlockVector> iterator = blockSet.iterator(); iterator.hasNext();) {
-                BlockVector blockVector = iterator.next();
+            for (int i = 0; i < blockSet.size(); ++i) {
+                BlockVector blockVector = BlockPosition.toBlockVector(blockSet.get(i));
                 block = editSession.getBlock(blockVector).getType();
                 if (block == BlockID.LEAVES || block == BlockID.LOG) {
                     editSession.setBlock(blockVector, air);
@@ -82,56 +78,56 @@ public class FloatingTreeRemover implements BlockTool {
     }
 
     /**
-     * Helper method.
+     * Find the leaves and logs connected to a block. The tree is floating
+     * unless one of its logs touches something other than air, snow,
+     * leaves or logs.
      * 
-     * @param server
-     * @param superPickaxeManyDrop
-     * @param world
-     * @param pos
+     * @param editSession
      * @param origin
      * @param size
-     * @param initialType
-     * @param visited
+     * @return the blocks of the tree, or null if it isn't floating
+     * @throws MaxChangedBlocksException
      */
-    private boolean recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, int size,
-            Set<BlockVector> visited, int lastBlock)
-            throws MaxChangedBlocksException {
-        
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return true;
-        }
+    private LongHashSet findTree(final EditSession editSession,
+            Vector origin, int size) throws MaxChangedBlocksException {
+        final FloodFill.Predicate inRange = FloodFill.withinSphere(origin, size);
+        FloodFill fill = new FloodFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                int block = editSession.getBlockType(x, y, z);
+                return block == BlockID.LEAVES || block == BlockID.LOG;
+            }
+        }, inRange, FloodFill.Connectivity.FACES);
 
-        visited.add(pos);
+        fill.addSeed(origin);
+        boolean floating = fill.run(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z) {
+                if (editSession.getBlockType(x, y, z) != BlockID.LOG) {
+                    return true;
+                }
 
-        int block = editSession.getBlock(pos).getType();
-        if (block == BlockID.AIR || block == BlockID.SNOW){
-            return true;
-        }
-        if (block != BlockID.LEAVES && block != BlockID.LOG) {
-            if (lastBlock == BlockID.LEAVES) {
-                return true;
-            }
-            else {
-                return false;
-            }
-            
-        }
+                for (int i = -1; i <= 1; ++i) {
+                    for (int j = -1; j <= 1; ++j) {
+                        for (int k = -1; k <= 1; ++k) {
+                            if (Math.abs(i) + Math.abs(j) + Math.abs(k) != 1
+                                    || !inRange.test(x + i, y + j, z + k)) {
+                                continue;
+                            }
 
-        for (int i = -1; i <= 1; ++i) {
-            for (int j = -1; j <= 1; ++j) {
-                for (int k = -1; k <= 1; ++k) {
-                    if (Math.abs(i) + Math.abs(j) + Math.abs(k) == 1) {
-                        if (!recurse(server, editSession, world, pos.add(i, j, k).toBlockVector(),
-                                origin, size, visited, block)) {
-                            return false;
+                            int block = editSession.getBlockType(
+                                    x + i, y + j, z + k);
+                            if (block != BlockID.AIR && block != BlockID.SNOW
+                                    && block != BlockID.LEAVES
+                                    && block != BlockID.LOG) {
+                                return false;
+                            }
                         }
                     }
                 }
+                return true;
             }
-        }
-        return true;
+        });
+
+        return floating ? fill.getVisited() : null;
     }
 
 }
@@ -19,8 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.patterns.Pattern;
@@ -60,8 +58,7 @@ public class FloodFillTool implements BlockTool {
         EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>());
+            fill(editSession, clicked, range, initialType);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -72,47 +69,31 @@ public class FloodFillTool implements BlockTool {
     }
 
     /**
-     * Helper method.
+     * Fill the blocks of a type connected to a block.
      * 
-     * @param server
-     * @param superPickaxeManyDrop
-     * @param world
-     * @param pos
+     * @param editSession
      * @param origin
      * @param size
      * @param initialType
-     * @param visited
+     * @throws MaxChangedBlocksException
      */
-    private void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, int size, int initialType,
-            Set<BlockVector> visited)
-            throws MaxChangedBlocksException {
-        
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            editSession.setBlock(pos, pattern.next(pos));
-        } else {
-            return;
-        }
+    private void fill(final EditSession editSession, Vector origin, int size,
+            final int initialType) throws MaxChangedBlocksException {
+        FloodFill fill = new FloodFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return editSession.getBlockType(x, y, z) == initialType;
+            }
+        }, FloodFill.withinSphere(origin, size), FloodFill.Connectivity.FACES);
 
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
+        fill.addSeed(origin);
+        fill.run(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pos = new Vector(x, y, z);
+                editSession.setBlock(pos, pattern.next(pos));
+                return true;
+            }
+        });
     }
 
 }
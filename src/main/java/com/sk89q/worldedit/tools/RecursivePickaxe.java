@@ -19,8 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -60,8 +58,7 @@ public class RecursivePickaxe implements BlockTool {
         EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>(),
+            fill(editSession, world, clicked, range, initialType,
                     config.superPickaxeManyDrop);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
@@ -73,50 +70,37 @@ public class RecursivePickaxe implements BlockTool {
     }
 
     /**
-     * Helper method.
+     * Break the blocks of a type connected to a block.
      * 
-     * @param server
-     * @param superPickaxeManyDrop
+     * @param editSession
      * @param world
-     * @param pos
      * @param origin
      * @param size
      * @param initialType
-     * @param visited
+     * @param drop
+     * @throws MaxChangedBlocksException
      */
-    private void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, int size, int initialType,
-            Set<BlockVector> visited, boolean drop)
-            throws MaxChangedBlocksException {
-        
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            if (drop) {
-                world.simulateBlockMine(pos);
+    private void fill(final EditSession editSession, final LocalWorld world,
+            Vector origin, int size, final int initialType,
+            final boolean drop) throws MaxChangedBlocksException {
+        FloodFill fill = new FloodFill(new FloodFill.Predicate() {
+            public boolean test(int x, int y, int z) {
+                return editSession.getBlockType(x, y, z) == initialType;
             }
-            editSession.setBlock(pos, air);
-        } else {
-            return;
-        }
+        }, FloodFill.withinSphere(origin, size), FloodFill.Connectivity.FACES);
 
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
+        fill.addSeed(origin);
+        fill.run(new FloodFill.Visitor() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pos = new Vector(x, y, z);
+                if (drop) {
+                    world.simulateBlockMine(pos);
+                }
+                editSession.setBlock(pos, air);
+                return true;
+            }
+        });
     }
 
 }
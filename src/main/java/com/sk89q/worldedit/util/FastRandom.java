@@ -0,0 +1,102 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.util;
+
+/**
+ * A small and fast xorshift random number generator. It is not
+ * synchronized, so each thread should use its own generator, such as the
+ * one returned by <code>get()</code>.
+ *
+ * @author sk89q
+ */
+public class FastRandom {
+    /**
+     * Generator of each thread.
+     */
+    private static final ThreadLocal<FastRandom> generators =
+            new ThreadLocal<FastRandom>() {
+        @Override
+        protected FastRandom initialValue() {
+            return new FastRandom(System.nanoTime()
+                    + Thread.currentThread().getId());
+        }
+    };
+
+    /**
+     * State of the generator. Never 0.
+     */
+    private long state;
+
+    /**
+     * Construct the generator.
+     *
+     * @param seed
+     */
+    public FastRandom(long seed) {
+        // Spread the bits of the seed so that similar seeds give
+        // different sequences
+        seed = (seed ^ (seed >>> 33)) * 0xFF51AFD7ED558CCDL;
+        seed = (seed ^ (seed >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        seed ^= seed >>> 33;
+        state = seed != 0 ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Get the generator of the current thread.
+     *
+     * @return
+     */
+    public static FastRandom get() {
+        return generators.get();
+    }
+
+    /**
+     * Get the next random long.
+     *
+     * @return
+     */
+    public long nextLong() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * Get a random int from 0 (inclusive) to n (exclusive).
+     *
+     * @param n must be positive
+     * @return
+     */
+    public int nextInt(int n) {
+        return (int) (((nextLong() >>> 32) * n) >>> 32);
+    }
+
+    /**
+     * Get a random double from 0 (inclusive) to 1 (exclusive).
+     *
+     * @return
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) / (double) (1L << 53);
+    }
+}
@@ -89,12 +89,24 @@ public class PropertiesConfiguration extends LocalConfiguration {
         navigationWand = getInt("nav-wand-item", navigationWand);
         navigationWandMaxDistance = getInt("nav-wand-distance", navigationWandMaxDistance);
         scriptTimeout = getInt("scripting-timeout", scriptTimeout);
+        bufferedEdits = getBool("buffered-edits", bufferedEdits);
+        blockCache = getBool("block-cache", blockCache);
+        flushBlocksPerTick = getInt("flush-blocks-per-tick", flushBlocksPerTick);
+        flushMaxTickTime = getInt("flush-max-tick-time", flushMaxTickTime);
+        analysisThreads = getInt("analysis-threads", analysisThreads);
+        schematicCacheSize = getInt("schematic-cache-size", schematicCacheSize);
         
         LocalSession.MAX_HISTORY_SIZE = Math.max(15, getInt("history-size", 15));
+        historyMemoryLimit = getInt("history-memory-limit", historyMemoryLimit);
+        historyDir = getString("history-dir", historyDir);
         
         String snapshotsDir = getString("snapshots-dir", "");
+        String snapshotsIndex = getString("snapshots-index-file", "");
         if (!snapshotsDir.trim().equals("")) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
+            if (!snapshotsIndex.trim().equals("")) {
+                snapshotRepo.setIndexFile(getWorkingDirectoryFile(snapshotsIndex));
+            }
         } else {
             snapshotRepo = null;
         }